@@ -0,0 +1,82 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single customer row as returned by the database, holding customer fields keyed by their field name: every field,
+ * or just those asked for when only some columns were fetched.
+ */
+public class CustomerRecord {
+
+    /**
+     * The names of every field stored against a customer, as accepted by TestDatabase.getCustomerField.
+     */
+    public static final List<String> FIELD_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "fName",
+            "lName",
+            "phoneNumber",
+            "emailAddress",
+            "address",
+            "suburb",
+            "state",
+            "postCode",
+            "merchandiser",
+            "businessName",
+            "pigeonCoopID"
+    ));
+
+    private final int id;
+    private final Map<String, String> fields;
+
+    /**
+     * Constructs a CustomerRecord.
+     *
+     * @param id     the customer ID
+     * @param fields the customer's field values keyed by field name
+     */
+    public CustomerRecord(int id, Map<String, String> fields) {
+        this.id = id;
+        this.fields = fields;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the value of a customer field.
+     *
+     * @param fieldName the field name, one of FIELD_NAMES
+     * @return the field value, null if the customer has no value for that field
+     */
+    public String getField(String fieldName) {
+        return fields.get(fieldName);
+    }
+
+    /**
+     * @param fieldName the field name, one of FIELD_NAMES
+     * @return true if the record holds the field, even if the customer has no value for it
+     */
+    public boolean hasField(String fieldName) {
+        return fields.containsKey(fieldName);
+    }
+
+    /**
+     * Returns a record holding only some of this record's fields.
+     *
+     * @param fieldNames the names of the fields to keep
+     * @return the narrower record
+     */
+    public CustomerRecord select(Collection<String> fieldNames) {
+        Map<String, String> selected = new HashMap<>();
+        for (String fieldName : fieldNames) {
+            selected.put(fieldName, fields.get(fieldName));
+        }
+        return new CustomerRecord(id, selected);
+    }
+}
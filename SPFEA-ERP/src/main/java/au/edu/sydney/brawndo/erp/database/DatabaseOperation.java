@@ -0,0 +1,36 @@
+package au.edu.sydney.brawndo.erp.database;
+
+/**
+ * The round trips TestDatabase simulates latency for, with the latency and progress message of the 'real' database.
+ */
+public enum DatabaseOperation {
+    SAVE_ORDER(10000, "Saving order"),
+    SAVE_ORDERS(10000, "Saving orders"),
+    GET_CUSTOMER_IDS(2000, "Getting customers"),
+    GET_CUSTOMER_FIELD(1000, "Getting customer field"),
+    GET_CUSTOMER_RECORD(1000, "Getting customer"),
+    GET_CUSTOMER_FIELDS(1000, "Getting customer fields"),
+    GET_CUSTOMER_RECORDS(1000, "Getting customers");
+
+    private final long productionMillis;
+    private final String message;
+
+    DatabaseOperation(long productionMillis, String message) {
+        this.productionMillis = productionMillis;
+        this.message = message;
+    }
+
+    /**
+     * @return how long the operation takes against the production database, in milliseconds
+     */
+    public long getProductionMillis() {
+        return productionMillis;
+    }
+
+    /**
+     * @return the progress message printed while the operation runs
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,382 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * FileOrderStore keeps orders durable in an append-only log file. Every change is appended as a record, and the log is
+ * replayed into an in-memory index when the store is opened, so reads never touch the disk.
+ *
+ * Writers that arrive while an fsync is running share the next one (group commit), so concurrent saves cost one
+ * sequential append each plus a shared fsync. An OrderDelta is logged as just its changed lines, so an edit costs log
+ * space in proportion to the edit rather than the order. Once most of the log is superseded records, it is compacted in the
+ * background by rewriting only the live orders.
+ *
+ * Log layout: a header (magic, version) followed by records of [type][payload length][payload][CRC32 of payload].
+ * A torn record at the end of the log, left by a crash mid-write, is discarded on replay.
+ */
+public class FileOrderStore implements OrderStore {
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    private static final int MAGIC = 0x42524F4C; // "BROL"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte NEXT_ID = 3;
+    private static final byte PATCH = 4;
+
+    private final Path path;
+    private final OrderCodec codec;
+    private final int compactionThreshold;
+    private final InMemoryOrderStore index = new InMemoryOrderStore();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "order-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object writeLock = new Object(); // taken before syncLock when both are needed
+    private final Object syncLock = new Object();
+
+    private volatile FileChannel channel; // replaced by compaction while holding both locks
+    private volatile long writtenSequence; // total bytes appended over the store's life, guarded by writeLock
+    private long durableSequence; // guarded by syncLock
+    private int logRecords; // guarded by writeLock
+    private boolean compactionQueued; // guarded by writeLock
+
+    /**
+     * Opens a log with the default compaction threshold, creating it if it doesn't exist.
+     *
+     * @param path  the log file
+     * @param codec the codec orders are stored with
+     * @throws IOException if the log can't be read or created
+     */
+    public FileOrderStore(Path path, OrderCodec codec) throws IOException {
+        this(path, codec, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens a log, creating it if it doesn't exist, and replays it into memory.
+     *
+     * @param path                the log file
+     * @param codec               the codec orders are stored with
+     * @param compactionThreshold the number of records the log may hold before it is considered for compaction
+     * @throws IOException if the log can't be read or created
+     */
+    public FileOrderStore(Path path, OrderCodec codec, int compactionThreshold) throws IOException {
+        this.path = path;
+        this.codec = codec;
+        this.compactionThreshold = compactionThreshold;
+
+        if (!Files.exists(path) || Files.size(path) < HEADER_LENGTH) {
+            writeLog(path, Collections.emptyList(), 1);
+        }
+
+        long validLength = replay();
+
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            channel.truncate(validLength); // drop a torn record left by a crash
+        }
+        channel.position(validLength);
+    }
+
+    @Override
+    public void saveOrder(Order order) {
+        applyChanges(Collections.singletonList(order), Collections.emptyList());
+    }
+
+    @Override
+    public void applyChanges(Collection<Order> saves, Collection<Integer> removals) {
+        applyChanges(saves, Collections.emptyList(), removals);
+    }
+
+    @Override
+    public void applyChanges(Collection<Order> saves, Collection<OrderDelta> deltas, Collection<Integer> removals) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(records);
+            for (Integer id : removals) {
+                writeRecord(out, REMOVE, encodeInt(id));
+            }
+            for (Order order : saves) {
+                writeRecord(out, PUT, encode(order));
+            }
+            for (OrderDelta delta : deltas) {
+                writeRecord(out, PATCH, encode(delta));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        int recordCount = saves.size() + deltas.size() + removals.size();
+        long sequence = append(records.toByteArray(), recordCount, () -> index.applyChanges(saves, deltas, removals));
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public Order getOrder(int id) {
+        return index.getOrder(id);
+    }
+
+    @Override
+    public boolean removeOrder(int id) {
+        if (null == index.getOrder(id)) {
+            return false;
+        }
+
+        applyChanges(Collections.emptyList(), Collections.singletonList(id));
+        return true;
+    }
+
+    @Override
+    public List<Order> getOrders() {
+        return index.getOrders();
+    }
+
+    @Override
+    public List<Integer> getOrderIDs() {
+        return index.getOrderIDs();
+    }
+
+    @Override
+    public List<OrderSummary> getOrderSummaries() {
+        return index.getOrderSummaries();
+    }
+
+    @Override
+    public int getNextOrderID() {
+        return index.getNextOrderID(); // IDs are re-derived from the log on replay, so issuing one needs no write
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+            synchronized (writeLock) {
+                synchronized (syncLock) {
+                    channel.force(true);
+                    channel.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends encoded records to the log and applies the matching change to the index, as one step with respect to
+     * other writers and compaction.
+     *
+     * @return the sequence number that must be durable for the records to be durable
+     */
+    private long append(byte[] records, int recordCount, Runnable applyToIndex) {
+        synchronized (writeLock) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(records);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            applyToIndex.run();
+            writtenSequence += records.length;
+            logRecords += recordCount;
+
+            if (!compactionQueued && logRecords >= compactionThreshold && logRecords > 2 * index.size()) {
+                compactionQueued = true;
+                compactor.execute(this::compact);
+            }
+
+            return writtenSequence;
+        }
+    }
+
+    /**
+     * Waits until everything up to the given sequence number has been fsynced. Whoever holds syncLock syncs every
+     * record written so far, so writers queued behind it usually find their records already durable.
+     */
+    private void awaitDurable(long sequence) {
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+
+            long target = writtenSequence;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            durableSequence = target;
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live orders and swaps it in place of the current one.
+     */
+    private void compact() {
+        synchronized (writeLock) {
+            compactionQueued = false;
+            Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+            try {
+                List<Order> live = index.getOrders();
+                writeLog(compacted, live, index.peekNextOrderID());
+
+                synchronized (syncLock) {
+                    channel.close();
+                    Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    durableSequence = writtenSequence; // the compacted log was fsynced before the swap
+                }
+                logRecords = live.size() + 1;
+            } catch (IOException e) {
+                System.err.println("Order log compaction failed: " + e.getMessage()); // the uncompacted log is still valid
+            }
+        }
+    }
+
+    /**
+     * Writes a complete, fsynced log holding the given orders.
+     */
+    private void writeLog(Path target, List<Order> orders, int nextOrderID) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream data = new DataOutputStream(Channels.newOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            writeRecord(data, NEXT_ID, encodeInt(nextOrderID));
+            for (Order order : orders) {
+                writeRecord(data, PUT, encode(order));
+            }
+            data.flush();
+            out.force(true);
+        }
+    }
+
+    /**
+     * Replays the log into the index.
+     *
+     * @return the length of the valid part of the log
+     */
+    private long replay() throws IOException {
+        long validLength;
+        long fileLength = Files.size(path);
+        int records = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(path + " is not an order log");
+            }
+            validLength = HEADER_LENGTH;
+
+            while (true) {
+                byte type;
+                byte[] payload;
+                try {
+                    type = in.readByte();
+                    int length = in.readInt();
+                    if (length < 0 || validLength + 1 + 4 + length + 4 > fileLength) {
+                        break; // torn record at the end of the log
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    if (in.readInt() != checksum(payload)) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break; // torn record at the end of the log
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                switch (type) {
+                    case PUT:
+                        Order order = OrderSnapshot.wrap(codec.read(record)); // nothing else holds the decoded order
+                        index.applyChanges(Collections.singletonList(order), Collections.emptyList());
+                        break;
+                    case REMOVE:
+                        int id = record.readInt();
+                        index.applyChanges(Collections.emptyList(), Collections.singletonList(id));
+                        index.advanceNextOrderID(id + 1);
+                        break;
+                    case NEXT_ID:
+                        index.advanceNextOrderID(record.readInt());
+                        break;
+                    case PATCH:
+                        OrderDelta delta = new OrderDelta(record.readInt(), codec.readLines(record));
+                        index.applyChanges(Collections.emptyList(), Collections.singletonList(delta), Collections.emptyList());
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + type + " in " + path);
+                }
+
+                validLength += 1 + 4 + payload.length + 4;
+                records++;
+            }
+        }
+
+        logRecords = records;
+        return validLength;
+    }
+
+    private byte[] encode(Order order) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(OrderSnapshot.unwrap(order), new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private byte[] encode(OrderDelta delta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(delta.getOrderID());
+        codec.writeLines(delta.getLines(), out);
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodeInt(int id) {
+        return ByteBuffer.allocate(4).putInt(id).array();
+    }
+
+    private void writeRecord(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt(checksum(payload));
+    }
+
+    private int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
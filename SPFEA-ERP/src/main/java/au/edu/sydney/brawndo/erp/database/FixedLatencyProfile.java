@@ -0,0 +1,26 @@
+package au.edu.sydney.brawndo.erp.database;
+
+/**
+ * A LatencyProfile where every round trip takes the same amount of time.
+ */
+public class FixedLatencyProfile implements LatencyProfile {
+
+    private final long millis;
+
+    /**
+     * Constructs a FixedLatencyProfile.
+     *
+     * @param millis the delay applied to every operation, in milliseconds
+     */
+    public FixedLatencyProfile(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Latency can't be negative");
+        }
+        this.millis = millis;
+    }
+
+    @Override
+    public long getDelayMillis(DatabaseOperation operation) {
+        return millis;
+    }
+}
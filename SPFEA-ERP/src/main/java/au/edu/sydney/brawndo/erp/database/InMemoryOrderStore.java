@@ -0,0 +1,179 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * InMemoryOrderStore keeps orders in an orderID-keyed hash index. Point lookups are lock free; changes take a short
+ * lock so the ID-sorted views used for full scans can be rebuilt lazily after the index changes. Each order is
+ * summarised once when it is saved, so listing summaries never touches the orders themselves.
+ */
+public class InMemoryOrderStore implements OrderStore {
+    private final AtomicInteger nextOrderID = new AtomicInteger(1);
+    private final Map<Integer, Order> orders = new ConcurrentHashMap<>(); // orderID index, point lookups and deletes are O(1)
+    private final Map<Integer, OrderSummary> summaries = new ConcurrentHashMap<>(); // kept in step with orders
+    private final Object orderLock = new Object(); // guards changes to the index against the sorted view rebuilds
+    private List<Order> sortedOrders; // ordered views for full scans, rebuilt lazily after the index changes
+    private List<Integer> sortedIDs;
+    private List<OrderSummary> sortedSummaries;
+
+    @Override
+    public void saveOrder(Order order) {
+        OrderSummary summary = OrderSummary.of(order);
+        synchronized (orderLock) {
+            orders.put(order.getOrderID(), order);
+            summaries.put(order.getOrderID(), summary);
+            invalidateViews();
+        }
+        advanceNextOrderID(order.getOrderID() + 1);
+    }
+
+    @Override
+    public void applyChanges(Collection<Order> saves, Collection<Integer> removals) {
+        List<OrderSummary> saveSummaries = new ArrayList<>(saves.size());
+        for (Order order : saves) {
+            saveSummaries.add(OrderSummary.of(order)); // outside the lock, costing an order isn't free
+        }
+
+        synchronized (orderLock) {
+            for (Integer id : removals) {
+                orders.remove(id);
+                summaries.remove(id);
+            }
+            for (Order order : saves) {
+                orders.put(order.getOrderID(), order);
+                advanceNextOrderID(order.getOrderID() + 1);
+            }
+            for (OrderSummary summary : saveSummaries) {
+                summaries.put(summary.getOrderID(), summary);
+            }
+            invalidateViews();
+        }
+    }
+
+    @Override
+    public void applyChanges(Collection<Order> saves, Collection<OrderDelta> deltas, Collection<Integer> removals) {
+        if (deltas.isEmpty()) {
+            applyChanges(saves, removals);
+            return;
+        }
+
+        // Patched orders are read and replaced under one lock, so concurrent deltas to an order all land
+        synchronized (orderLock) {
+            applyChanges(saves, removals);
+
+            List<Order> patched = new ArrayList<>(deltas.size());
+            for (OrderDelta delta : deltas) {
+                Order stored = orders.get(delta.getOrderID());
+                if (null != stored) {
+                    patched.add(OrderSnapshot.of(stored).apply(delta));
+                }
+            }
+            applyChanges(patched, Collections.emptyList());
+        }
+    }
+
+    @Override
+    public Order getOrder(int id) {
+        return orders.get(id);
+    }
+
+    @Override
+    public boolean removeOrder(int id) {
+        synchronized (orderLock) {
+            if (null == orders.remove(id)) {
+                return false;
+            }
+            summaries.remove(id);
+            invalidateViews();
+            return true;
+        }
+    }
+
+    @Override
+    public List<Order> getOrders() {
+        synchronized (orderLock) {
+            if (null == sortedOrders) {
+                List<Order> sorted = new ArrayList<>(orders.values());
+                sorted.sort(Comparator.comparingInt(Order::getOrderID));
+                sortedOrders = sorted;
+            }
+            return sortedOrders;
+        }
+    }
+
+    /**
+     * @return the IDs of every stored order, sorted, as an unmodifiable list shared until the orders next change
+     */
+    @Override
+    public List<Integer> getOrderIDs() {
+        synchronized (orderLock) {
+            if (null == sortedIDs) {
+                List<Integer> sorted = new ArrayList<>(orders.keySet());
+                Collections.sort(sorted);
+                sortedIDs = Collections.unmodifiableList(sorted);
+            }
+            return sortedIDs;
+        }
+    }
+
+    /**
+     * @return a summary of every stored order, sorted by order ID, as an unmodifiable list shared until the orders
+     * next change
+     */
+    @Override
+    public List<OrderSummary> getOrderSummaries() {
+        synchronized (orderLock) {
+            if (null == sortedSummaries) {
+                List<OrderSummary> sorted = new ArrayList<>(summaries.values());
+                sorted.sort(Comparator.comparingInt(OrderSummary::getOrderID));
+                sortedSummaries = Collections.unmodifiableList(sorted);
+            }
+            return sortedSummaries;
+        }
+    }
+
+    @Override
+    public int getNextOrderID() {
+        return nextOrderID.getAndIncrement();
+    }
+
+    /**
+     * @return the number of stored orders
+     */
+    public int size() {
+        return orders.size();
+    }
+
+    /**
+     * @return the ID the next call to getNextOrderID will return, without issuing it
+     */
+    int peekNextOrderID() {
+        return nextOrderID.get();
+    }
+
+    /**
+     * Makes sure no ID below the given one is issued again, e.g. after restoring orders saved by an earlier process.
+     *
+     * @param orderID the lowest ID that may still be issued
+     */
+    void advanceNextOrderID(int orderID) {
+        nextOrderID.accumulateAndGet(orderID, Math::max);
+    }
+
+    private void invalidateViews() {
+        sortedOrders = null;
+        sortedIDs = null;
+        sortedSummaries = null;
+    }
+}
@@ -0,0 +1,80 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A LatencyProfile decides how long TestDatabase takes to complete each round trip, so the layers above it can be run
+ * against zero, production-like or worst-case latency.
+ *
+ * A profile can be chosen at startup with the brawndo.db.latency system property, see parse(String).
+ */
+public interface LatencyProfile {
+
+    /**
+     * Returns how long the given round trip should take.
+     *
+     * @param operation the database operation being performed
+     * @return the delay in milliseconds, 0 for none
+     */
+    long getDelayMillis(DatabaseOperation operation);
+
+    /**
+     * @return a profile matching the production database
+     */
+    static LatencyProfile production() {
+        Map<DatabaseOperation, Long> millis = new EnumMap<>(DatabaseOperation.class);
+        for (DatabaseOperation operation : DatabaseOperation.values()) {
+            millis.put(operation, operation.getProductionMillis());
+        }
+        return new TableLatencyProfile(millis);
+    }
+
+    /**
+     * Builds a profile from a text specification, one of:
+     * <ul>
+     *     <li>{@code production} - the production latencies</li>
+     *     <li>{@code zero} - no latency</li>
+     *     <li>{@code fixed:<millis>} - the same latency for every operation</li>
+     *     <li>{@code table:<OPERATION>=<millis>,...} - per-operation latency, unlisted operations take none</li>
+     *     <li>{@code random:<seed>[:<tailProbability>:<tailMultiplier>]} - production latency with seeded jitter and
+     *     occasional tail spikes</li>
+     * </ul>
+     *
+     * @param spec the specification
+     * @return the matching profile
+     * @throws IllegalArgumentException if the specification isn't valid
+     */
+    static LatencyProfile parse(String spec) {
+        String[] parts = spec.trim().split(":");
+
+        try {
+            switch (parts[0].toLowerCase()) {
+                case "production":
+                    return production();
+                case "zero":
+                    return new ZeroLatencyProfile();
+                case "fixed":
+                    return new FixedLatencyProfile(Long.parseLong(parts[1]));
+                case "table":
+                    Map<DatabaseOperation, Long> millis = new EnumMap<>(DatabaseOperation.class);
+                    for (String entry : parts[1].split(",")) {
+                        String[] pair = entry.split("=");
+                        millis.put(DatabaseOperation.valueOf(pair[0].trim().toUpperCase()), Long.parseLong(pair[1].trim()));
+                    }
+                    return new TableLatencyProfile(millis);
+                case "random":
+                    long seed = Long.parseLong(parts[1]);
+                    if (parts.length == 2) {
+                        return new RandomLatencyProfile(production(), seed);
+                    }
+                    return new RandomLatencyProfile(production(), seed,
+                            Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+                default:
+                    throw new IllegalArgumentException("Unknown latency profile " + spec);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) { // NumberFormatException is already an IllegalArgumentException
+            throw new IllegalArgumentException("Incomplete latency profile " + spec, e);
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * MappedOrderStore keeps encoded orders in a memory-mapped file and holds nothing in memory but an index of each
+ * order's file offset and total cost. Orders are decoded straight from the mapping when asked for. Listing order IDs
+ * never touches the records, and listing summaries reads just the customer and date from each record's header, so
+ * neither decodes an order.
+ *
+ * Writers that arrive while the mapping is being forced to disk share the next force (group commit), so concurrent
+ * changes cost one copy into the mapping each plus a shared flush.
+ *
+ * Records are only ever appended; replacing or removing an order marks its old records dead. An OrderDelta is appended
+ * as a patch record holding just its changed lines, so an edit costs file space in proportion to the edit rather than
+ * the order. Patches are folded into the order when it is read, and once an order has MAX_PATCHES of them its next
+ * delta rewrites it whole. Dead records are reclaimed, and patches folded, when the file is opened and holds more dead
+ * bytes than live ones.
+ *
+ * File layout: a header (magic, version, next order ID, reserved) followed by records of
+ * [payload length][order ID][state][customer ID][date epoch second][date nano][total cost][payload]. A whole order's
+ * payload is the codec's encoding of the order, and a patch's is the codec's encoding of the changed lines; a patch
+ * copies the customer and date of its order and has no total cost. The length is written last, so a record that was
+ * never completed reads as the end of the file.
+ */
+public class MappedOrderStore implements OrderStore {
+    public static final int DEFAULT_INITIAL_CAPACITY = 1 << 20;
+    public static final int MAX_PATCHES = 8;
+
+    private static final int MAGIC = 0x42524F4D; // "BROM"
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 16;
+    private static final int NEXT_ID_OFFSET = 8;
+    private static final int ID_FIELD = 4; // record header fields, relative to the start of the record
+    private static final int STATE_FIELD = 8;
+    private static final int CUSTOMER_FIELD = 9;
+    private static final int EPOCH_SECOND_FIELD = 13;
+    private static final int NANO_FIELD = 21;
+    private static final int TOTAL_COST_FIELD = 25;
+    private static final int RECORD_HEADER_LENGTH = 33;
+    private static final byte LIVE = 1; // a whole order
+    private static final byte PATCH = 2; // changed lines of the order in the last live record before it
+    private static final byte DEAD = 0;
+
+    private final Path path;
+    private final OrderCodec codec;
+    private final Map<Integer, Slot> slots = new ConcurrentSkipListMap<>(); // by orderID, sorted for full scans
+    private final Object writeLock = new Object(); // taken before syncLock when both are needed
+    private final Object syncLock = new Object();
+
+    private FileChannel channel; // guarded by writeLock
+    private volatile MappedByteBuffer mapping; // replaced when the file grows, always before new slots are published
+    private int end; // offset one past the last complete record, guarded by writeLock
+    private int nextOrderID = 1; // guarded by writeLock
+    private long liveBytes; // guarded by writeLock
+    private long deadBytes; // guarded by writeLock
+    private volatile long writtenSequence; // changes made over the store's life, written under writeLock
+    private long durableSequence; // guarded by syncLock
+
+    /**
+     * Opens an order file with the default initial capacity, creating it if it doesn't exist.
+     *
+     * @param path  the order file
+     * @param codec the codec orders are stored with
+     * @throws IOException if the file can't be read or created
+     */
+    public MappedOrderStore(Path path, OrderCodec codec) throws IOException {
+        this(path, codec, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Opens an order file, creating it if it doesn't exist. The file is mapped at no less than the initial capacity and
+     * the mapping doubles whenever it fills up.
+     *
+     * @param path            the order file
+     * @param codec           the codec orders are stored with
+     * @param initialCapacity the size in bytes the file is first mapped at
+     * @throws IOException if the file can't be read or created
+     */
+    public MappedOrderStore(Path path, OrderCodec codec, int initialCapacity) throws IOException {
+        this.path = path;
+        this.codec = codec;
+
+        open(initialCapacity);
+        if (deadBytes > liveBytes) {
+            compact(initialCapacity);
+        }
+    }
+
+    @Override
+    public void saveOrder(Order order) {
+        applyChanges(Collections.singletonList(order), Collections.emptyList());
+    }
+
+    @Override
+    public void applyChanges(Collection<Order> saves, Collection<Integer> removals) {
+        applyChanges(saves, Collections.emptyList(), removals);
+    }
+
+    /**
+     * A delta is appended as a patch record, unless the order already has MAX_PATCHES patches, in which case the stored
+     * order is read, patched and rewritten whole. Either way this happens under the write lock, so concurrent deltas
+     * to an order all land.
+     */
+    @Override
+    public void applyChanges(Collection<Order> saves, Collection<OrderDelta> deltas, Collection<Integer> removals) {
+        List<byte[]> payloads = new ArrayList<>(saves.size());
+        for (Order order : saves) {
+            payloads.add(encode(order)); // encoded before taking the lock, so writers only serialise on the copy in
+        }
+        List<byte[]> patches = new ArrayList<>(deltas.size());
+        for (OrderDelta delta : deltas) {
+            patches.add(encode(delta));
+        }
+
+        long sequence;
+        synchronized (writeLock) {
+            for (Integer id : removals) {
+                Slot slot = slots.remove(id);
+                if (null != slot) {
+                    markDead(slot);
+                }
+            }
+
+            int i = 0;
+            for (Order order : saves) {
+                append(order, payloads.get(i++));
+            }
+
+            i = 0;
+            for (OrderDelta delta : deltas) {
+                byte[] patch = patches.get(i++);
+                Slot slot = slots.get(delta.getOrderID());
+                if (null == slot) {
+                    continue;
+                }
+
+                if (slot.patches.length < MAX_PATCHES) {
+                    appendPatch(delta.getOrderID(), slot, patch);
+                } else {
+                    Order patched = decode(slot).apply(delta);
+                    append(patched, encode(patched));
+                }
+            }
+
+            sequence = ++writtenSequence;
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public Order getOrder(int id) {
+        Slot slot = slots.get(id);
+        return null == slot ? null : decode(slot);
+    }
+
+    @Override
+    public boolean removeOrder(int id) {
+        long sequence;
+        synchronized (writeLock) {
+            Slot slot = slots.remove(id);
+            if (null == slot) {
+                return false;
+            }
+
+            markDead(slot);
+            sequence = ++writtenSequence;
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public List<Order> getOrders() {
+        List<Order> result = new ArrayList<>(slots.size());
+        for (Slot slot : slots.values()) {
+            result.add(decode(slot));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Integer> getOrderIDs() {
+        return new ArrayList<>(slots.keySet()); // the index already holds them sorted
+    }
+
+    /**
+     * The total cost comes from the index, as costing an order needs its strategy and products, and the customer and
+     * date are read in place from each record's header. Only an order patched since its total was last worked out is
+     * decoded, once, and its total kept in the index again.
+     */
+    @Override
+    public List<OrderSummary> getOrderSummaries() {
+        List<OrderSummary> result = new ArrayList<>(slots.size());
+        for (Map.Entry<Integer, Slot> entry : slots.entrySet()) {
+            Slot slot = entry.getValue();
+            double totalCost = slot.totalCost;
+            if (Double.isNaN(totalCost)) {
+                totalCost = decode(slot).getTotalCost();
+                slots.replace(entry.getKey(), slot, slot.withTotalCost(totalCost)); // unless it has changed since
+            }
+
+            ByteBuffer records = mapping; // read after the slot, so it is large enough to hold the slot's records
+            LocalDateTime date = LocalDateTime.ofEpochSecond(records.getLong(slot.offset + EPOCH_SECOND_FIELD),
+                    records.getInt(slot.offset + NANO_FIELD), ZoneOffset.UTC);
+            result.add(new OrderSummary(entry.getKey(), records.getInt(slot.offset + CUSTOMER_FIELD), date, totalCost));
+        }
+        return result;
+    }
+
+    @Override
+    public int getNextOrderID() {
+        synchronized (writeLock) {
+            int id = nextOrderID++;
+            mapping.putInt(NEXT_ID_OFFSET, nextOrderID); // written back with the next forced change or on close
+            return id;
+        }
+    }
+
+    /**
+     * @return the number of stored orders
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            try {
+                mapping.force();
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Waits until every change up to the given sequence number has been forced to disk. Whoever holds syncLock forces
+     * every change made so far, so writers queued behind it usually find their changes already durable.
+     */
+    private void awaitDurable(long sequence) {
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+
+            long target = writtenSequence; // read before mapping, which is always grown before the sequence moves
+            mapping.force();
+            durableSequence = target;
+        }
+    }
+
+    /**
+     * Maps the file, writing a header if it is new, and rebuilds the index from its records.
+     */
+    private void open(int initialCapacity) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() < HEADER_LENGTH;
+        long capacity = Math.max(channel.size(), Math.max(initialCapacity, HEADER_LENGTH));
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException(path + " is too large to map");
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (created) {
+            mapping.putInt(0, MAGIC);
+            mapping.putInt(4, VERSION);
+            mapping.putInt(NEXT_ID_OFFSET, 1);
+            mapping.force();
+        } else if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not an order file");
+        }
+
+        slots.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        nextOrderID = mapping.getInt(NEXT_ID_OFFSET);
+
+        int offset = HEADER_LENGTH;
+        while (offset + RECORD_HEADER_LENGTH <= mapping.capacity()) {
+            int length = mapping.getInt(offset);
+            if (length <= 0 || (long) offset + RECORD_HEADER_LENGTH + length > mapping.capacity()) {
+                break; // end of the records, or a record that was never completed
+            }
+
+            int id = mapping.getInt(offset + ID_FIELD);
+            nextOrderID = Math.max(nextOrderID, id + 1);
+            byte state = mapping.get(offset + STATE_FIELD);
+            if (state == DEAD) {
+                deadBytes += RECORD_HEADER_LENGTH + length;
+            } else {
+                liveBytes += RECORD_HEADER_LENGTH + length;
+                Slot slot = slots.get(id);
+                if (state == LIVE) {
+                    slots.put(id, new Slot(offset, mapping.getDouble(offset + TOTAL_COST_FIELD)));
+                    if (null != slot) {
+                        markDead(slot); // a later record for the same order supersedes it
+                    }
+                } else if (null != slot) {
+                    slots.put(id, slot.withPatch(offset));
+                } else {
+                    markDead(offset); // a patch of an order whose removal didn't finish marking its records dead
+                }
+            }
+            offset += RECORD_HEADER_LENGTH + length;
+        }
+
+        end = offset;
+    }
+
+    /**
+     * Rewrites the file with only its live orders, each folded into a single record, and reopens it.
+     */
+    private void compact(int initialCapacity) throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).putInt(nextOrderID).putInt(0).flip();
+            out.write(header);
+
+            ByteBuffer records = mapping.duplicate();
+            for (Slot slot : slots.values()) {
+                if (slot.patches.length > 0) {
+                    Order folded = decode(slot);
+                    byte[] payload = encode(folded);
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length);
+                    putRecord(record, 0, folded.getOrderID(), LIVE, folded.getCustomer(), folded.getOrderDate(),
+                            folded.getTotalCost(), payload);
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                    continue;
+                }
+
+                records.limit(slot.offset + RECORD_HEADER_LENGTH + records.getInt(slot.offset));
+                records.position(slot.offset);
+                while (records.hasRemaining()) {
+                    out.write(records);
+                }
+                records.limit(records.capacity());
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open(initialCapacity);
+    }
+
+    /**
+     * Appends a whole order and points the index at it. The order's old records, if any, are marked dead only once the
+     * new one is complete, so a crash in between leaves the order readable.
+     */
+    private void append(Order order, byte[] payload) {
+        int offset = appendRecord(order.getOrderID(), LIVE, order.getCustomer(), order.getOrderDate(),
+                order.getTotalCost(), payload);
+
+        Slot replaced = slots.put(order.getOrderID(), new Slot(offset, order.getTotalCost()));
+        if (null != replaced) {
+            markDead(replaced);
+        }
+    }
+
+    /**
+     * Appends a patch of an order and adds it to the order's slot. The order's total cost is unknown until it is next
+     * decoded.
+     */
+    private void appendPatch(int id, Slot slot, byte[] payload) {
+        MappedByteBuffer records = mapping;
+        LocalDateTime date = LocalDateTime.ofEpochSecond(records.getLong(slot.offset + EPOCH_SECOND_FIELD),
+                records.getInt(slot.offset + NANO_FIELD), ZoneOffset.UTC);
+        int offset = appendRecord(id, PATCH, records.getInt(slot.offset + CUSTOMER_FIELD), date, Double.NaN, payload);
+
+        slots.put(id, slot.withPatch(offset));
+    }
+
+    /**
+     * Appends a record after the last one.
+     *
+     * @return the record's offset
+     */
+    private int appendRecord(int id, byte state, int customerID, LocalDateTime date, double totalCost, byte[] payload) {
+        int offset = end;
+        ensureCapacity((long) offset + RECORD_HEADER_LENGTH + payload.length);
+
+        MappedByteBuffer target = mapping;
+        putRecord(target, offset, id, state, customerID, date, totalCost, payload);
+        end = offset + RECORD_HEADER_LENGTH + payload.length;
+
+        liveBytes += RECORD_HEADER_LENGTH + payload.length;
+        if (id >= nextOrderID) {
+            nextOrderID = id + 1;
+            target.putInt(NEXT_ID_OFFSET, nextOrderID);
+        }
+        return offset;
+    }
+
+    private static void putRecord(ByteBuffer target, int offset, int id, byte state, int customerID,
+                                  LocalDateTime date, double totalCost, byte[] payload) {
+        target.putInt(offset + ID_FIELD, id);
+        target.put(offset + STATE_FIELD, state);
+        target.putInt(offset + CUSTOMER_FIELD, customerID);
+        target.putLong(offset + EPOCH_SECOND_FIELD, date.toEpochSecond(ZoneOffset.UTC));
+        target.putInt(offset + NANO_FIELD, date.getNano());
+        target.putDouble(offset + TOTAL_COST_FIELD, totalCost);
+        target.put(offset + RECORD_HEADER_LENGTH, payload);
+        target.putInt(offset, payload.length); // last, which completes the record
+    }
+
+    private void markDead(Slot slot) {
+        markDead(slot.offset);
+        for (int patch : slot.patches) {
+            markDead(patch);
+        }
+    }
+
+    private void markDead(int offset) {
+        mapping.put(offset + STATE_FIELD, DEAD);
+        long length = RECORD_HEADER_LENGTH + mapping.getInt(offset);
+        liveBytes -= length;
+        deadBytes += length;
+    }
+
+    /**
+     * Grows the mapping until it can hold the given number of bytes. Readers still holding the previous mapping keep
+     * working, since it stays valid and every record it covers is unchanged.
+     */
+    private void ensureCapacity(long required) {
+        if (required <= mapping.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Order file " + path + " is full");
+        }
+
+        long capacity = Math.min(Integer.MAX_VALUE, Math.max(required, 2L * mapping.capacity()));
+        try {
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes an order from its whole record, folding in its patches.
+     */
+    private OrderSnapshot decode(Slot slot) {
+        ByteBuffer records = mapping.duplicate();
+        try {
+            OrderSnapshot order = OrderSnapshot.wrap(codec.read(payload(records, slot.offset)));
+            for (int patch : slot.patches) {
+                order = order.apply(new OrderDelta(order.getOrderID(), codec.readLines(payload(records, patch))));
+            }
+            return order;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static DataInputStream payload(ByteBuffer records, int offset) {
+        ByteBuffer record = records.duplicate();
+        record.limit(offset + RECORD_HEADER_LENGTH + record.getInt(offset));
+        record.position(offset + RECORD_HEADER_LENGTH);
+        return new DataInputStream(new ByteBufferInputStream(record));
+    }
+
+    private byte[] encode(Order order) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            codec.write(OrderSnapshot.unwrap(order), new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] encode(OrderDelta delta) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            codec.writeLines(delta.getLines(), new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Where an order's records are in the file, and the order's total cost, which summaries can't read in place.
+     * Slots are immutable, so readers never see one half updated.
+     */
+    private static final class Slot {
+        private static final int[] NO_PATCHES = new int[0];
+
+        private final int offset; // the order's last whole record
+        private final int[] patches; // the patch records after it, oldest first
+        private final double totalCost; // NaN if the order has been patched since it was last costed
+
+        private Slot(int offset, double totalCost) {
+            this(offset, NO_PATCHES, totalCost);
+        }
+
+        private Slot(int offset, int[] patches, double totalCost) {
+            this.offset = offset;
+            this.patches = patches;
+            this.totalCost = totalCost;
+        }
+
+        private Slot withPatch(int patch) {
+            int[] extended = Arrays.copyOf(patches, patches.length + 1);
+            extended[patches.length] = patch;
+            return new Slot(offset, extended, Double.NaN);
+        }
+
+        private Slot withTotalCost(double totalCost) {
+            return new Slot(offset, patches, totalCost);
+        }
+    }
+}
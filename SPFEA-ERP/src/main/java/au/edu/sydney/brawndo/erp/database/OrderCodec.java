@@ -0,0 +1,54 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * An OrderCodec converts orders to and from the binary form persistent order stores keep on disk. The database only
+ * knows orders through the Order interface, so the codec is supplied by the code that owns the concrete order types.
+ */
+public interface OrderCodec {
+
+    /**
+     * Writes an order.
+     *
+     * @param order the order to write
+     * @param out   the destination
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the order can't be represented by this codec
+     */
+    void write(Order order, DataOutput out) throws IOException;
+
+    /**
+     * Reads an order written by write.
+     *
+     * @param in the source
+     * @return the order
+     * @throws IOException if reading fails or the data is not a valid order
+     */
+    Order read(DataInput in) throws IOException;
+
+    /**
+     * Writes a set of order lines, e.g. the changed lines of an OrderDelta.
+     *
+     * @param lines the quantity of each product
+     * @param out   the destination
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if a product can't be represented by this codec
+     */
+    void writeLines(Map<Product, Integer> lines, DataOutput out) throws IOException;
+
+    /**
+     * Reads a set of order lines written by writeLines.
+     *
+     * @param in the source
+     * @return the quantity of each product, in the order they were written
+     * @throws IOException if reading fails or the data is not valid order lines
+     */
+    Map<Product, Integer> readLines(DataInput in) throws IOException;
+}
@@ -0,0 +1,175 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.SubscriptionOrder;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * An OrderSnapshot is the immutable form orders are stored in. Since nothing can change a snapshot, the database hands
+ * out the stored instance on every read instead of a defensive copy, and anything derived from it, like the total
+ * cost, is worked out once.
+ *
+ * To edit a stored order, edit its copy(), which is an ordinary mutable order, and save that.
+ */
+public class OrderSnapshot implements Order {
+    private final Order order; // owned by the snapshot, never changed or handed out
+    private final Set<Product> products;
+    private final double totalCost;
+    private String shortDesc; // built on first use; a race only builds an identical string twice
+    private String longDesc;
+
+    OrderSnapshot(Order order) {
+        this.order = order;
+        this.products = Collections.unmodifiableSet(order.getAllProducts());
+        this.totalCost = order.getTotalCost();
+    }
+
+    /**
+     * Returns an immutable snapshot of an order as it is now. The order is copied once, so later changes to it don't
+     * affect the snapshot. A snapshot is returned as is.
+     *
+     * @param order the order
+     * @return the snapshot
+     */
+    public static OrderSnapshot of(Order order) {
+        if (order instanceof OrderSnapshot) {
+            return (OrderSnapshot) order;
+        }
+        return wrap(order.copy());
+    }
+
+    /**
+     * Snapshots an order without copying it, for orders nothing else holds a reference to, like ones just decoded from
+     * storage.
+     */
+    static OrderSnapshot wrap(Order order) {
+        if (order instanceof SubscriptionOrder) {
+            return new SubscriptionOrderSnapshot((SubscriptionOrder) order);
+        }
+        return new OrderSnapshot(order);
+    }
+
+    /**
+     * Returns the order a snapshot was taken of, for codecs that need the concrete order type. The result must not be
+     * changed. Orders that aren't snapshots are returned as is.
+     */
+    static Order unwrap(Order order) {
+        return order instanceof OrderSnapshot ? ((OrderSnapshot) order).order : order;
+    }
+
+    /**
+     * Returns a snapshot of this order with a delta's line changes applied. This snapshot is unchanged.
+     *
+     * @param delta the line changes
+     * @return the changed snapshot
+     */
+    public OrderSnapshot apply(OrderDelta delta) {
+        Order changed = order.copy();
+        delta.applyTo(changed);
+        return wrap(changed);
+    }
+
+    @Override
+    public int getOrderID() {
+        return order.getOrderID();
+    }
+
+    @Override
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    @Override
+    public LocalDateTime getOrderDate() {
+        return order.getOrderDate();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, snapshots are immutable; edit a copy() instead
+     */
+    @Override
+    public void setProduct(Product product, int qty) {
+        throw new UnsupportedOperationException("Order " + getOrderID() + " is a stored snapshot, edit a copy");
+    }
+
+    @Override
+    public Set<Product> getAllProducts() {
+        return products;
+    }
+
+    @Override
+    public int getProductQty(Product product) {
+        return order.getProductQty(product);
+    }
+
+    @Override
+    public String generateInvoiceData() {
+        return order.generateInvoiceData();
+    }
+
+    @Override
+    public int getCustomer() {
+        return order.getCustomer();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, snapshots are immutable; finalise a copy() instead
+     */
+    @Override
+    public void finalise() {
+        throw new UnsupportedOperationException("Order " + getOrderID() + " is a stored snapshot, finalise a copy");
+    }
+
+    /**
+     * @return a mutable copy of the order
+     */
+    @Override
+    public Order copy() {
+        return order.copy();
+    }
+
+    @Override
+    public String shortDesc() {
+        if (null == shortDesc) {
+            shortDesc = order.shortDesc();
+        }
+        return shortDesc;
+    }
+
+    @Override
+    public String longDesc() {
+        if (null == longDesc) {
+            longDesc = order.longDesc();
+        }
+        return longDesc;
+    }
+
+    /**
+     * The snapshot of a subscription order, so snapshots keep the subscription view of the order they were taken of.
+     */
+    static class SubscriptionOrderSnapshot extends OrderSnapshot implements SubscriptionOrder {
+        private final double recurringCost;
+        private final int numberOfShipments;
+
+        SubscriptionOrderSnapshot(SubscriptionOrder order) {
+            super(order);
+            this.recurringCost = order.getRecurringCost();
+            this.numberOfShipments = order.numberOfShipmentsOrdered();
+        }
+
+        @Override
+        public double getRecurringCost() {
+            return recurringCost;
+        }
+
+        @Override
+        public int numberOfShipmentsOrdered() {
+            return numberOfShipments;
+        }
+    }
+}
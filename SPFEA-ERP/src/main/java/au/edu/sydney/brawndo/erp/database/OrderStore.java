@@ -0,0 +1,117 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An OrderStore is the storage backend TestDatabase keeps its orders in. Authorisation, latency and snapshotting are
+ * handled by TestDatabase, which only gives a store immutable OrderSnapshots, so a store may hand them back directly.
+ * Orders a store decodes itself are snapshotted with OrderSnapshot.wrap.
+ *
+ * Implementations must be safe to call from multiple threads.
+ */
+public interface OrderStore {
+
+    /**
+     * Saves an order, replacing any stored order with the same ID.
+     *
+     * @param order the order to save
+     */
+    void saveOrder(Order order);
+
+    /**
+     * Removes and saves a batch of orders as a single change. Removals are applied before saves.
+     *
+     * @param saves    the orders to save
+     * @param removals the IDs of the orders to remove
+     */
+    void applyChanges(Collection<Order> saves, Collection<Integer> removals);
+
+    /**
+     * Removes, saves and patches a batch of orders as a single change. Removals are applied first, then saves, then
+     * deltas. A delta for an order that isn't stored is dropped.
+     *
+     * The default resolves each delta against the stored order and saves the result whole. Stores that can persist a
+     * delta as it is, or need the read and write to be atomic, should override it.
+     *
+     * @param saves    the orders to save
+     * @param deltas   the line changes to apply to stored orders
+     * @param removals the IDs of the orders to remove
+     */
+    default void applyChanges(Collection<Order> saves, Collection<OrderDelta> deltas, Collection<Integer> removals) {
+        if (deltas.isEmpty()) {
+            applyChanges(saves, removals);
+            return;
+        }
+
+        List<Order> resolved = new ArrayList<>(saves);
+        for (OrderDelta delta : deltas) {
+            Order stored = getOrder(delta.getOrderID());
+            if (null != stored) {
+                resolved.add(OrderSnapshot.of(stored).apply(delta));
+            }
+        }
+        applyChanges(resolved, removals);
+    }
+
+    /**
+     * @param id the order ID
+     * @return the stored order, null if there is none
+     */
+    Order getOrder(int id);
+
+    /**
+     * @param id the order ID
+     * @return true if an order was removed, false if there was no order with that ID
+     */
+    boolean removeOrder(int id);
+
+    /**
+     * @return every stored order, sorted by order ID
+     */
+    List<Order> getOrders();
+
+    /**
+     * Projects every stored order down to its ID. Stores should override this to avoid materialising orders.
+     *
+     * @return the IDs of every stored order, sorted
+     */
+    default List<Integer> getOrderIDs() {
+        List<Order> orders = getOrders();
+        List<Integer> ids = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            ids.add(order.getOrderID());
+        }
+        return ids;
+    }
+
+    /**
+     * Projects every stored order down to an OrderSummary. Stores should override this to avoid materialising orders.
+     *
+     * @return a summary of every stored order, sorted by order ID
+     */
+    default List<OrderSummary> getOrderSummaries() {
+        List<Order> orders = getOrders();
+        List<OrderSummary> summaries = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            summaries.add(OrderSummary.of(order));
+        }
+        return summaries;
+    }
+
+    /**
+     * @return an order ID that hasn't been issued before
+     */
+    int getNextOrderID();
+
+    /**
+     * Releases any resources held by the store, making sure every change is persisted first.
+     */
+    default void close() {
+    }
+}
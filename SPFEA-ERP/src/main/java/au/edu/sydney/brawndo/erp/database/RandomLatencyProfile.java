@@ -0,0 +1,61 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import java.util.Random;
+
+/**
+ * A LatencyProfile that jitters a base profile randomly and occasionally adds a tail spike, to model a loaded
+ * database. The random sequence is seeded so a run can be repeated exactly.
+ */
+public class RandomLatencyProfile implements LatencyProfile {
+
+    public static final double DEFAULT_TAIL_PROBABILITY = 0.01;
+    public static final double DEFAULT_TAIL_MULTIPLIER = 10.0;
+
+    private final LatencyProfile base;
+    private final Random random;
+    private final double tailProbability;
+    private final double tailMultiplier;
+
+    /**
+     * Constructs a RandomLatencyProfile with the default tail behaviour.
+     *
+     * @param base the profile giving the typical delay of each operation
+     * @param seed the random seed
+     */
+    public RandomLatencyProfile(LatencyProfile base, long seed) {
+        this(base, seed, DEFAULT_TAIL_PROBABILITY, DEFAULT_TAIL_MULTIPLIER);
+    }
+
+    /**
+     * Constructs a RandomLatencyProfile.
+     *
+     * @param base            the profile giving the typical delay of each operation
+     * @param seed            the random seed
+     * @param tailProbability the chance, between 0 and 1, that a round trip hits a tail spike
+     * @param tailMultiplier  how many times longer than typical a tail spike takes
+     */
+    public RandomLatencyProfile(LatencyProfile base, long seed, double tailProbability, double tailMultiplier) {
+        if (tailProbability < 0 || tailProbability > 1) {
+            throw new IllegalArgumentException("Tail probability not between 0 and 1");
+        }
+        if (tailMultiplier < 1) {
+            throw new IllegalArgumentException("Tail multiplier less than 1");
+        }
+
+        this.base = base;
+        this.random = new Random(seed);
+        this.tailProbability = tailProbability;
+        this.tailMultiplier = tailMultiplier;
+    }
+
+    @Override
+    public long getDelayMillis(DatabaseOperation operation) {
+        double delay = base.getDelayMillis(operation) * (0.5 + random.nextDouble()); // typical delay +/- 50%
+
+        if (random.nextDouble() < tailProbability) {
+            delay *= tailMultiplier;
+        }
+
+        return Math.round(delay);
+    }
+}
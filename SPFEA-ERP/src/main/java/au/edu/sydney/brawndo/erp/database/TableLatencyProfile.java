@@ -0,0 +1,26 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A LatencyProfile with a separate delay for each operation. Operations missing from the table take no time.
+ */
+public class TableLatencyProfile implements LatencyProfile {
+
+    private final Map<DatabaseOperation, Long> millis;
+
+    /**
+     * Constructs a TableLatencyProfile.
+     *
+     * @param millis the delay of each operation, in milliseconds
+     */
+    public TableLatencyProfile(Map<DatabaseOperation, Long> millis) {
+        this.millis = millis.isEmpty() ? new EnumMap<>(DatabaseOperation.class) : new EnumMap<>(millis);
+    }
+
+    @Override
+    public long getDelayMillis(DatabaseOperation operation) {
+        return millis.getOrDefault(operation, 0L);
+    }
+}
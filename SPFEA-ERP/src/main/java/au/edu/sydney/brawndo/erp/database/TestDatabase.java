@@ -3,13 +3,31 @@ package au.edu.sydney.brawndo.erp.database;
 import au.edu.sydney.brawndo.erp.auth.AuthModule;
 import au.edu.sydney.brawndo.erp.auth.AuthToken;
 import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+/*
+Note: the database is shared by every session and by background commits, so it is safe to call from multiple threads.
+Orders are kept in a pluggable OrderStore, which is never locked while simulating latency, so concurrent round trips
+overlap rather than queue.
+
+Every write to an order bumps its version, which starts at 0 for an order that has never been written. A change can
+name the version it was based on, and is rejected with a VersionConflict if the order has moved on since, rather than
+silently overwriting the other change. Writes lock only the stripes of the orders they touch, so sessions writing
+different orders commit in parallel.
+ */
 @SuppressWarnings("Duplicates")
 public class TestDatabase {
-    private int nextOrderID = 1;
 
     private static final TestDatabase instance = new TestDatabase();
     /*
@@ -17,14 +35,23 @@ public class TestDatabase {
     This is set up to do the same things in the same amount of time as the 'real' database.
     Because it's networked and relational DB based object identity can't be assumed
      */
-    private List<Order> orders = new ArrayList<>();
+    private volatile OrderStore orderStore = new InMemoryOrderStore();
+    private final Map<Integer, Long> orderVersions = new ConcurrentHashMap<>(); // absent for orders never written
+    private final ReentrantLock[] orderLocks = new ReentrantLock[64];
     private List<Integer> customers = new ArrayList<>();
 
+    private volatile LatencyProfile latencyProfile = LatencyProfile.parse(System.getProperty("brawndo.db.latency", "production"));
+    private volatile boolean progressOutput = Boolean.parseBoolean(System.getProperty("brawndo.db.progress", "true"));
+
     private TestDatabase(){
         customers.add(0);
         customers.add(1);
         customers.add(2);
         customers.add(3);
+
+        for (int i = 0; i < orderLocks.length; i++) {
+            orderLocks[i] = new ReentrantLock();
+        }
     }
 
     public static TestDatabase getInstance() {
@@ -32,40 +59,209 @@ public class TestDatabase {
     }
 
     public void saveOrder(AuthToken token, Order order) {
-        if (!AuthModule.authenticate(token)) {
+        if (!authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
 
-        for (Order iter : orders) {
-            if (iter.getOrderID() == order.getOrderID()) {
-                orders.remove(iter);
-                break;
-            }
+        simulateSlowDatabase(DatabaseOperation.SAVE_ORDER);
+
+        OrderSnapshot snapshot = OrderSnapshot.of(order);
+        List<ReentrantLock> locks = lockOrders(Collections.singleton(order.getOrderID()));
+        try {
+            orderStore.saveOrder(snapshot);
+            bumpVersion(order.getOrderID());
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /*
+    Note: a batch is a single round trip, so saving or removing any number of orders together costs the same
+    as a single saveOrder call.
+     */
+    public void saveOrders(AuthToken token, Collection<Order> orders) {
+        applyChanges(token, orders, Collections.emptyList());
+    }
+
+    public void applyChanges(AuthToken token, Collection<Order> saves, Collection<Integer> removals) {
+        applyChanges(token, saves, Collections.emptyList(), removals);
+    }
+
+    /*
+    Note: a delta carries only the changed lines of a stored order, so the payload and the work of storing it scale
+    with the edit rather than the order. A delta for an order that isn't stored is dropped.
+     */
+    public void applyChanges(AuthToken token, Collection<Order> saves, Collection<OrderDelta> deltas,
+                             Collection<Integer> removals) {
+        applyChanges(token, saves, deltas, removals, Collections.emptyMap());
+    }
+
+    /*
+    Note: the version check and the write happen together for each order, so of two changes based on the same version
+    only the first is applied. Changes to orders without an expected version are applied whatever their version.
+     */
+    public List<VersionConflict> applyChanges(AuthToken token, Collection<Order> saves, Collection<OrderDelta> deltas,
+                                              Collection<Integer> removals, Map<Integer, Long> expectedVersions) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        if (saves.isEmpty() && deltas.isEmpty() && removals.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        simulateSlowDatabase(DatabaseOperation.SAVE_ORDERS);
+
+        List<Integer> ids = new ArrayList<>(saves.size() + deltas.size() + removals.size());
+        for (Order order : saves) {
+            ids.add(order.getOrderID());
+        }
+        for (OrderDelta delta : deltas) {
+            ids.add(delta.getOrderID());
         }
+        ids.addAll(removals);
+
+        List<ReentrantLock> locks = lockOrders(ids);
+        try {
+            List<VersionConflict> conflicts = new ArrayList<>();
+            for (Integer id : ids) {
+                Long expected = expectedVersions.get(id);
+                long actual = getVersion(id);
+                if (null != expected && expected != actual) {
+                    conflicts.add(new VersionConflict(id, expected, actual));
+                }
+            }
+
+            List<Order> snapshots = new ArrayList<>(saves.size());
+            for (Order order : saves) {
+                if (isAccepted(order.getOrderID(), conflicts)) {
+                    snapshots.add(OrderSnapshot.of(order));
+                }
+            }
+            List<OrderDelta> acceptedDeltas = new ArrayList<>(deltas.size());
+            for (OrderDelta delta : deltas) {
+                if (isAccepted(delta.getOrderID(), conflicts)) {
+                    acceptedDeltas.add(delta);
+                }
+            }
+            List<Integer> acceptedRemovals = new ArrayList<>(removals.size());
+            for (Integer id : removals) {
+                if (isAccepted(id, conflicts)) {
+                    acceptedRemovals.add(id);
+                }
+            }
 
+            orderStore.applyChanges(snapshots, acceptedDeltas, acceptedRemovals);
 
-        simulateSlowDatabase(10, "Saving order");
+            for (Integer id : ids) {
+                if (isAccepted(id, conflicts)) {
+                    bumpVersion(id);
+                }
+            }
+            return conflicts;
+        } finally {
+            unlock(locks);
+        }
+    }
 
-        orders.add(order.copy());
+    /*
+    Note: read an order's version before the order itself. A write landing in between then makes the version older
+    than the order read, which can only cause a needless conflict, never a lost update.
+     */
+    public long getOrderVersion(AuthToken token, int id) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        return getVersion(id);
     }
 
     public List<Integer> getCustomerIDs(AuthToken token) {
-        if (!AuthModule.authenticate(token)) {
+        if (!authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
 
-        simulateSlowDatabase(2, "Getting customers");
+        simulateSlowDatabase(DatabaseOperation.GET_CUSTOMER_IDS);
 
         return new ArrayList<>(customers);
     }
 
     public String getCustomerField(AuthToken token, int id, String fieldName) {
-        if (!AuthModule.authenticate(token)) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        simulateSlowDatabase(DatabaseOperation.GET_CUSTOMER_FIELD);
+
+        return lookupCustomerField(id, fieldName);
+    }
+
+    /*
+    Note: a whole customer row costs the same single round trip as one field, and a multi-customer fetch
+    is one round trip regardless of how many customers are requested.
+     */
+    public CustomerRecord getCustomerRecord(AuthToken token, int id) {
+        if (!authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
 
-        simulateSlowDatabase(1, "Getting customer field");
+        simulateSlowDatabase(DatabaseOperation.GET_CUSTOMER_RECORD);
+
+        return lookupCustomerRecord(id);
+    }
+
+    /*
+    Note: fetching only some columns of a customer row costs the same single round trip as the whole row, but only the
+    requested fields are sent back.
+     */
+    public CustomerRecord getCustomerFields(AuthToken token, int id, Collection<String> fieldNames) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        simulateSlowDatabase(DatabaseOperation.GET_CUSTOMER_FIELDS);
+
+        if (!customers.contains(id)) {
+            return null;
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        for (String fieldName : fieldNames) {
+            fields.put(fieldName, lookupCustomerField(id, fieldName));
+        }
+        return new CustomerRecord(id, fields);
+    }
+
+    public List<CustomerRecord> getCustomerRecords(AuthToken token, Collection<Integer> ids) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        simulateSlowDatabase(DatabaseOperation.GET_CUSTOMER_RECORDS);
+
+        List<CustomerRecord> result = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            CustomerRecord record = lookupCustomerRecord(id);
+            if (null != record) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    private CustomerRecord lookupCustomerRecord(int id) {
+        if (!customers.contains(id)) {
+            return null;
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        for (String fieldName : CustomerRecord.FIELD_NAMES) {
+            fields.put(fieldName, lookupCustomerField(id, fieldName));
+        }
+        return new CustomerRecord(id, fields);
+    }
 
+    private String lookupCustomerField(int id, String fieldName) {
         switch (fieldName) {
             case "fName":
                 switch (id) {
@@ -215,53 +411,174 @@ public class TestDatabase {
         }
     }
 
+    /*
+    Note: orders are stored as immutable OrderSnapshots, so reads return the stored snapshot rather than a copy.
+    Edit an order by saving a changed copy() of it.
+     */
     public Order getOrder(AuthToken token, int id) {
-        if (!AuthModule.authenticate(token)) {
+        if (!authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
 
-        for (Order iter : orders) {
-            if (iter.getOrderID() == id) {
-                return iter.copy();
-            }
-        }
-
-        return null;
+        return orderStore.getOrder(id);
     }
 
     public boolean removeOrder(AuthToken token, int id) {
-        if (!AuthModule.authenticate(token)) {
+        if (!authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
 
-        for (Order iter : orders) {
-            if (iter.getOrderID() == id) {
-                orders.remove(iter);
-                return true;
-            }
+        List<ReentrantLock> locks = lockOrders(Collections.singleton(id));
+        try {
+            return removeStored(id);
+        } finally {
+            unlock(locks);
         }
+    }
 
-        return false;
+    /*
+    Note: the order is only removed if it is still at the expected version, checked and removed together as
+    applyChanges does, so a removal based on an order another session has since changed does nothing.
+     */
+    public boolean removeOrder(AuthToken token, int id, long expectedVersion) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
 
+        List<ReentrantLock> locks = lockOrders(Collections.singleton(id));
+        try {
+            return getVersion(id) == expectedVersion && removeStored(id);
+        } finally {
+            unlock(locks);
+        }
     }
 
     public List<Order> getOrders(AuthToken token) {
-        if (!AuthModule.authenticate(token)) {
+        if (!authenticate(token)) {
             throw new SecurityException("Invalid authorisation");
         }
 
-        List<Order> result = new ArrayList<>();
-        for (Order order: orders) {
-            result.add(order.copy());
+        return Collections.unmodifiableList(orderStore.getOrders());
+    }
+
+    /*
+    Note: projections are answered from the store without copying any orders, so they cost the same no matter how
+    many lines the orders have. The returned lists may be shared and must not be modified.
+     */
+    public List<Integer> getOrderIDs(AuthToken token) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
         }
-        return result;
+
+        return orderStore.getOrderIDs();
+    }
+
+    public List<OrderSummary> getOrderSummaries(AuthToken token) {
+        if (!authenticate(token)) {
+            throw new SecurityException("Invalid authorisation");
+        }
+
+        return orderStore.getOrderSummaries();
     }
 
     public int getNextOrderID() {
-        return nextOrderID++;
+        return orderStore.getNextOrderID();
+    }
+
+    /**
+     * Replaces the store orders are kept in, for example with a durable one. Intended to be called at startup, before
+     * any orders are saved; orders in the previous store are not carried over.
+     *
+     * @param orderStore the new order store
+     */
+    public void setOrderStore(OrderStore orderStore) {
+        this.orderStore = orderStore;
+    }
+
+    public OrderStore getOrderStore() {
+        return orderStore;
+    }
+
+    /**
+     * Replaces the latency profile used to simulate round trips. The profile is normally chosen at startup with the
+     * brawndo.db.latency system property, see LatencyProfile.parse(String).
+     *
+     * @param latencyProfile the new latency profile
+     */
+    public void setLatencyProfile(LatencyProfile latencyProfile) {
+        this.latencyProfile = latencyProfile;
+    }
+
+    /**
+     * Turns the progress messages printed during round trips on or off. They are on unless the brawndo.db.progress
+     * system property is false.
+     *
+     * @param progressOutput true to print progress messages
+     */
+    public void setProgressOutput(boolean progressOutput) {
+        this.progressOutput = progressOutput;
+    }
+
+    /*
+    Note: AuthModule keeps its tokens in a plain list, and sessions log in and out while other threads are using the
+    database, so the list is only ever used while holding its lock. The facade logs in and out under the same lock.
+     */
+    private static boolean authenticate(AuthToken token) {
+        synchronized (AuthModule.tokens) {
+            return AuthModule.authenticate(token);
+        }
+    }
+
+    private long getVersion(int id) {
+        return orderVersions.getOrDefault(id, 0L);
+    }
+
+    private void bumpVersion(int id) {
+        orderVersions.merge(id, 1L, Long::sum);
+    }
+
+    private boolean removeStored(int id) {
+        boolean removed = orderStore.removeOrder(id);
+        if (removed) { // removing an order that isn't there changes nothing
+            bumpVersion(id);
+        }
+        return removed;
     }
 
-    private void simulateSlowDatabase(int seconds, String message) {
+    private static boolean isAccepted(int id, List<VersionConflict> conflicts) {
+        for (VersionConflict conflict : conflicts) { // conflicts are rare, so a scan beats building a set
+            if (conflict.getOrderID() == id) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Locks the stripes of the given orders, always in ascending order so concurrent writes can't deadlock.
+     */
+    private List<ReentrantLock> lockOrders(Collection<Integer> ids) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (Integer id : ids) {
+            stripes.add(Math.floorMod(id, orderLocks.length));
+        }
+
+        List<ReentrantLock> locks = new ArrayList<>(stripes.size());
+        for (Integer stripe : stripes) {
+            ReentrantLock lock = orderLocks[stripe];
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    private static void unlock(List<ReentrantLock> locks) {
+        for (ReentrantLock lock : locks) {
+            lock.unlock();
+        }
+    }
+
+    private void simulateSlowDatabase(DatabaseOperation operation) {
         /*
         Note from Frito:
         No, the real database doesn't sleep. Yes, the real database takes 10 seconds to save a record etc. The DB
@@ -269,15 +586,26 @@ public class TestDatabase {
         help us out in the SPFEA code?
          */
 
+        long delay = latencyProfile.getDelayMillis(operation);
+        if (delay <= 0) {
+            return;
+        }
+
         try {
-            System.out.print(message);
-            for (int i = 0; i < seconds; i++) {
+            if (!progressOutput) {
+                Thread.sleep(delay);
+                return;
+            }
+
+            System.out.print(operation.getMessage());
+            for (long remaining = delay; remaining > 0; remaining -= 1000) {
                 System.out.print(".");
-                Thread.sleep(1000);
+                Thread.sleep(Math.min(remaining, 1000));
             }
             System.out.print("done!\n");
-        } catch (InterruptedException ignored) {}
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
     }
 }
-
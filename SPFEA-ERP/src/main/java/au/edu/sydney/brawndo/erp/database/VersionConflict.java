@@ -0,0 +1,41 @@
+package au.edu.sydney.brawndo.erp.database;
+
+/**
+ * A VersionConflict describes a change to an order that was rejected because the order had been written since the
+ * change was based on it, so applying it would have overwritten someone else's change.
+ */
+public class VersionConflict {
+    private final int orderID;
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    /**
+     * Constructs a VersionConflict.
+     *
+     * @param orderID         the ID of the order
+     * @param expectedVersion the version the change was based on
+     * @param actualVersion   the version the database holds
+     */
+    public VersionConflict(int orderID, long expectedVersion, long actualVersion) {
+        this.orderID = orderID;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public int getOrderID() {
+        return orderID;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getActualVersion() {
+        return actualVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "Order " + orderID + " is at version " + actualVersion + ", not " + expectedVersion;
+    }
+}
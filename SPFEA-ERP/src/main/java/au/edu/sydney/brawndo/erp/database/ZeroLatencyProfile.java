@@ -0,0 +1,12 @@
+package au.edu.sydney.brawndo.erp.database;
+
+/**
+ * A LatencyProfile where every round trip completes immediately.
+ */
+public class ZeroLatencyProfile implements LatencyProfile {
+
+    @Override
+    public long getDelayMillis(DatabaseOperation operation) {
+        return 0;
+    }
+}
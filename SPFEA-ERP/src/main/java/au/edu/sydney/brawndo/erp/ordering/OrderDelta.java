@@ -0,0 +1,47 @@
+package au.edu.sydney.brawndo.erp.ordering;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The line changes made to a stored order, so an edit can be persisted without rewriting the whole order. Each line
+ * gives a product's new quantity, as it was passed to Order.setProduct.
+ */
+public class OrderDelta {
+    private final int orderID;
+    private final Map<Product, Integer> lines;
+
+    /**
+     * Constructs an OrderDelta.
+     *
+     * @param orderID the ID of the changed order
+     * @param lines   the new quantity of each changed product, in the order they were changed
+     */
+    public OrderDelta(int orderID, Map<Product, Integer> lines) {
+        this.orderID = orderID;
+        this.lines = Collections.unmodifiableMap(new LinkedHashMap<>(lines));
+    }
+
+    public int getOrderID() {
+        return orderID;
+    }
+
+    /**
+     * @return the new quantity of each changed product, unmodifiable
+     */
+    public Map<Product, Integer> getLines() {
+        return lines;
+    }
+
+    /**
+     * Applies the changed lines to an order.
+     *
+     * @param order the order to change, which must be mutable
+     */
+    public void applyTo(Order order) {
+        for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+            order.setProduct(line.getKey(), line.getValue());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package au.edu.sydney.brawndo.erp.ordering;
+
+import java.time.LocalDateTime;
+
+/**
+ * A projection of an order holding just what order listings show, so listing orders doesn't copy each one.
+ */
+public class OrderSummary {
+    private final int orderID;
+    private final int customerID;
+    private final LocalDateTime date;
+    private final double totalCost;
+
+    /**
+     * Constructs an OrderSummary.
+     *
+     * @param orderID    the order ID
+     * @param customerID the ID of the customer who placed the order
+     * @param date       the date of the order
+     * @param totalCost  the total cost of the order, as returned by Order.getTotalCost
+     */
+    public OrderSummary(int orderID, int customerID, LocalDateTime date, double totalCost) {
+        this.orderID = orderID;
+        this.customerID = customerID;
+        this.date = date;
+        this.totalCost = totalCost;
+    }
+
+    /**
+     * Summarises an order as it is now.
+     *
+     * @param order the order
+     * @return the summary
+     */
+    public static OrderSummary of(Order order) {
+        return new OrderSummary(order.getOrderID(), order.getCustomer(), order.getOrderDate(), order.getTotalCost());
+    }
+
+    public int getOrderID() {
+        return orderID;
+    }
+
+    public int getCustomerID() {
+        return customerID;
+    }
+
+    public LocalDateTime getDate() {
+        return date;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+}
@@ -16,4 +16,14 @@ public interface Product {
     double[] getMarketingData();
     double[] getSafetyData();
     double[] getLicensingData();
+
+    /**
+     * Returns the key the catalog assigned the product. Every copy of a catalog product carries the same key, so it
+     * can stand in for comparing products.
+     *
+     * @return the catalog key, null for a product that didn't come from the catalog
+     */
+    default ProductKey getKey() {
+        return null;
+    }
 }
@@ -0,0 +1,56 @@
+package au.edu.sydney.brawndo.erp.ordering;
+
+/**
+ * The key the catalog assigns a product: a compact ID, dense from 0, and the SKU stored orders refer to the product by.
+ * Products are rebuilt whenever they are fetched, but every copy of a catalog product carries the same key, so keys
+ * identify like products with one hash probe rather than a comparison of their data.
+ */
+public final class ProductKey {
+    private final int id;
+    private final String sku;
+
+    /**
+     * Constructs a ProductKey.
+     *
+     * @param id  the product's catalog ID
+     * @param sku the product's catalog SKU
+     */
+    public ProductKey(int id, String sku) {
+        this.id = id;
+        this.sku = sku;
+    }
+
+    /**
+     * @return the product's catalog ID, which is small enough to index an array by
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProductKey)) {
+            return false;
+        }
+
+        ProductKey other = (ProductKey) o;
+        return id == other.id && sku.equals(other.sku);
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return sku;
+    }
+}
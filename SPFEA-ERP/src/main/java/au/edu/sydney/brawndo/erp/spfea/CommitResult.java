@@ -0,0 +1,55 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.database.VersionConflict;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The CommitResult class describes the outcome of a Unit of Work commit once it has been written to the database.
+ * Changes to orders another session wrote first are not applied, and are listed as conflicts instead.
+ */
+public class CommitResult {
+    private final int savedCount;
+    private final int removedCount;
+    private final List<VersionConflict> conflicts;
+
+    /**
+     * Constructs a CommitResult with no conflicts.
+     *
+     * @param savedCount   the number of orders saved by the commit
+     * @param removedCount the number of orders removed by the commit
+     */
+    public CommitResult(int savedCount, int removedCount) {
+        this(savedCount, removedCount, Collections.emptyList());
+    }
+
+    /**
+     * Constructs a CommitResult.
+     *
+     * @param savedCount   the number of orders saved by the commit
+     * @param removedCount the number of orders removed by the commit
+     * @param conflicts    the changes that were rejected because their order had changed since they were made
+     */
+    public CommitResult(int savedCount, int removedCount, List<VersionConflict> conflicts) {
+        this.savedCount = savedCount;
+        this.removedCount = removedCount;
+        this.conflicts = Collections.unmodifiableList(conflicts);
+    }
+
+    public int getSavedCount() {
+        return savedCount;
+    }
+
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    public List<VersionConflict> getConflicts() {
+        return conflicts;
+    }
+
+    public boolean hasConflicts() {
+        return !conflicts.isEmpty();
+    }
+}
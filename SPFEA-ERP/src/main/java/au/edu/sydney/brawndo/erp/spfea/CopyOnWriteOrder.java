@@ -0,0 +1,133 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.SubscriptionOrder;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+/**
+ * A CopyOnWriteOrder is how the facade hands out an order it doesn't own, like a stored snapshot or an order the
+ * committer is still writing. Reads go straight to that order, and the first setProduct or finalise copies it, so the
+ * caller can change its order like any other without paying for a copy it never needed, and without changing the
+ * shared one.
+ *
+ * Changes made this way stay with the caller's order; orders are changed in the database through the facade.
+ */
+class CopyOnWriteOrder implements Order {
+    private Order order;
+    private boolean copied;
+
+    CopyOnWriteOrder(Order order) {
+        this.order = order;
+    }
+
+    /**
+     * Wraps an order the caller must not change, keeping the subscription view of subscription orders.
+     *
+     * @param order the order, may be null
+     * @return the wrapped order, null if the order is null
+     */
+    static Order of(Order order) {
+        if (null == order) {
+            return null;
+        }
+        if (order instanceof SubscriptionOrder) {
+            return new CopyOnWriteSubscriptionOrder((SubscriptionOrder) order);
+        }
+        return new CopyOnWriteOrder(order);
+    }
+
+    Order current() {
+        return order;
+    }
+
+    private Order writable() {
+        if (!copied) {
+            order = order.copy();
+            copied = true;
+        }
+        return order;
+    }
+
+    @Override
+    public int getOrderID() {
+        return order.getOrderID();
+    }
+
+    @Override
+    public double getTotalCost() {
+        return order.getTotalCost();
+    }
+
+    @Override
+    public LocalDateTime getOrderDate() {
+        return order.getOrderDate();
+    }
+
+    @Override
+    public void setProduct(Product product, int qty) {
+        writable().setProduct(product, qty);
+    }
+
+    @Override
+    public Set<Product> getAllProducts() {
+        return order.getAllProducts();
+    }
+
+    @Override
+    public int getProductQty(Product product) {
+        return order.getProductQty(product);
+    }
+
+    @Override
+    public String generateInvoiceData() {
+        return order.generateInvoiceData();
+    }
+
+    @Override
+    public int getCustomer() {
+        return order.getCustomer();
+    }
+
+    @Override
+    public void finalise() {
+        writable().finalise();
+    }
+
+    @Override
+    public Order copy() {
+        return order.copy();
+    }
+
+    @Override
+    public String shortDesc() {
+        return order.shortDesc();
+    }
+
+    @Override
+    public String longDesc() {
+        return order.longDesc();
+    }
+
+    /**
+     * The copy-on-write form of a subscription order.
+     */
+    static class CopyOnWriteSubscriptionOrder extends CopyOnWriteOrder implements SubscriptionOrder {
+
+        CopyOnWriteSubscriptionOrder(SubscriptionOrder order) {
+            super(order);
+        }
+
+        @Override
+        public double getRecurringCost() {
+            return ((SubscriptionOrder) current()).getRecurringCost();
+        }
+
+        @Override
+        public int numberOfShipmentsOrdered() {
+            return ((SubscriptionOrder) current()).numberOfShipmentsOrdered();
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The CustomerCache holds customer data for the whole process, keyed by customer ID alone, so a customer is loaded
+ * from the database once per time to live however many sessions and facades view it. The token of whichever caller
+ * needs a load is used for it; the cached data doesn't depend on it.
+ *
+ * Customers are cached by CustomerFieldGroup, and a read loads only the group it needs, so a caller that only wants a
+ * phone number never fetches an address. Bulk loads fetch whole records and fill in every group at once.
+ *
+ * A read of an entry that is close to expiring refreshes it in the background while the current data is returned, so
+ * customers in regular use never expire in front of a caller. Each field group has at most one load in flight: other
+ * callers wait for it rather than starting their own. Entries can also be dropped explicitly when a customer is known
+ * to have changed.
+ *
+ * Every load also updates a CustomerIndex of the searchable fields. The index is built from one bulk load of every
+ * customer, rebuilt once it is older than the time to live, and a customer invalidated since is reloaded into it
+ * before the next search.
+ *
+ * The time to live comes from the brawndo.customers.ttl system property, in seconds, and defaults to 5 minutes. The
+ * process-wide cache starts with the customers of the warm-start snapshot, if there is one, that are still live.
+ */
+public class CustomerCache {
+    private static final CustomerCache instance = createInstance();
+
+    // Shared by every cache; the threads only ever wait on the database, so they are cheap to run many of
+    private static final ExecutorService REFRESHERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "customer-refresh");
+        thread.setDaemon(true); // a refresh is only ever early, so it never holds the process open
+        return thread;
+    });
+
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final Supplier<TestDatabase> database;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>(); // keyed by customer ID and field group
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final CustomerIndex index = new CustomerIndex();
+    private final Object indexLock = new Object();
+    private volatile long indexedAt = Long.MIN_VALUE; // System.nanoTime() of the last full build, MIN_VALUE if none
+    private final Set<Integer> unindexed = ConcurrentHashMap.newKeySet(); // invalidated since they were indexed
+
+    /**
+     * A cached field group of a customer, or the load of one that is still in flight.
+     */
+    private static class Entry {
+        private final CompletableFuture<CustomerRecord> fields = new CompletableFuture<>();
+        private volatile long loadedAt; // System.nanoTime() when the load completed
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private void complete(CustomerRecord loaded) {
+            complete(loaded, System.nanoTime());
+        }
+
+        private void complete(CustomerRecord loaded, long loadedAt) {
+            this.loadedAt = loadedAt; // before completing, so anyone who sees it done sees when
+            fields.complete(loaded);
+        }
+    }
+
+    /**
+     * Constructs a CustomerCache.
+     *
+     * @param ttl          how long a customer is cached for
+     * @param unit         the unit of ttl
+     * @param refreshAhead the fraction of the time to live after which a read refreshes the entry in the background,
+     *                     1 to never refresh ahead
+     */
+    public CustomerCache(long ttl, TimeUnit unit, double refreshAhead) {
+        this(ttl, unit, refreshAhead, TestDatabase::getInstance);
+    }
+
+    /**
+     * Constructs a CustomerCache that loads from the given database rather than TestDatabase.getInstance(). The
+     * database is looked up on whichever thread loads, including the background refreshes.
+     */
+    CustomerCache(long ttl, TimeUnit unit, double refreshAhead, Supplier<TestDatabase> database) {
+        if (ttl < 1) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        if (refreshAhead <= 0 || refreshAhead > 1) {
+            throw new IllegalArgumentException("Refresh ahead must be a fraction of the time to live");
+        }
+
+        this.ttlNanos = unit.toNanos(ttl);
+        this.refreshAfterNanos = (long) (ttlNanos * refreshAhead);
+        this.database = database;
+    }
+
+    private static CustomerCache createInstance() {
+        CustomerCache cache = new CustomerCache(Long.getLong("brawndo.customers.ttl", 300), TimeUnit.SECONDS, 0.8);
+        WarmStartSnapshot snapshot = WarmStartSnapshot.getStartup();
+        if (null != snapshot) {
+            cache.restore(snapshot);
+        }
+        return cache;
+    }
+
+    /**
+     * @return the cache shared by the whole process
+     */
+    public static CustomerCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns every field group that has finished loading and not yet expired, to write to a warm-start snapshot.
+     *
+     * @return the cached field groups
+     */
+    public List<WarmStartSnapshot.CustomerFields> getCachedFields() {
+        List<WarmStartSnapshot.CustomerFields> result = new ArrayList<>();
+        CustomerFieldGroup[] groups = CustomerFieldGroup.values();
+        long now = System.nanoTime();
+        long wallClock = System.currentTimeMillis();
+        for (Map.Entry<Long, Entry> cached : entries.entrySet()) {
+            Entry entry = cached.getValue();
+            if (entry.fields.isDone() && isLive(entry)) {
+                long loadedAt = wallClock - TimeUnit.NANOSECONDS.toMillis(now - entry.loadedAt);
+                result.add(new WarmStartSnapshot.CustomerFields(entry.fields.join(),
+                        groups[(int) (cached.getKey() & 0xFF)], loadedAt));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the field groups of a warm-start snapshot that haven't been cached since and wouldn't have expired yet. They
+     * expire as if they had been cached all along.
+     *
+     * @param snapshot the snapshot
+     * @return the number of field groups restored
+     */
+    public int restore(WarmStartSnapshot snapshot) {
+        int restored = 0;
+        long now = System.nanoTime();
+        long wallClock = System.currentTimeMillis();
+        for (WarmStartSnapshot.CustomerFields cached : snapshot.getCustomerFields()) {
+            long age = TimeUnit.MILLISECONDS.toNanos(wallClock - cached.getLoadedAt());
+            if (age < 0 || age >= ttlNanos) {
+                continue; // expired, or the clock has been wound back since
+            }
+
+            Entry entry = new Entry();
+            entry.complete(cached.getFields(), now - age);
+            if (null == entries.putIfAbsent(key(cached.getFields().getId(), cached.getGroup()), entry)) {
+                index.update(cached.getFields());
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * @param snapshot a warm-start snapshot
+     * @return true if data taken when the snapshot was would still be live in this cache
+     */
+    public boolean isFresh(WarmStartSnapshot snapshot) {
+        long age = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - snapshot.getWrittenAt());
+        return age >= 0 && age < ttlNanos;
+    }
+
+    /**
+     * Returns the value of one field of a customer, loading the field's group if it isn't cached or has expired.
+     *
+     * @param token     the authentication token to load with
+     * @param id        the customer ID
+     * @param fieldName the field name
+     * @return the field value, null if the customer has no value for the field
+     * @throws IllegalArgumentException if there is no such field
+     */
+    public String getField(AuthToken token, int id, String fieldName) {
+        return getGroup(token, id, CustomerFieldGroup.of(fieldName)).getField(fieldName);
+    }
+
+    /**
+     * Returns one field group of a customer, loading it if it isn't cached or has expired.
+     *
+     * @param token the authentication token to load with
+     * @param id    the customer ID
+     * @param group the field group
+     * @return a record holding the group's fields, all null if the customer doesn't exist
+     */
+    public CustomerRecord getGroup(AuthToken token, int id, CustomerFieldGroup group) {
+        long key = key(id, group);
+        while (true) {
+            Entry entry = entries.get(key);
+            if (isLive(entry)) {
+                hits.increment();
+                refreshIfDue(token, id, group, entry);
+                try {
+                    return await(entry.fields);
+                } catch (RuntimeException e) {
+                    continue; // another caller's load failed, perhaps only for their token, so try a load of our own
+                }
+            }
+
+            Entry claimed = claim(key, entry);
+            if (null != claimed) {
+                misses.increment();
+                try {
+                    CustomerRecord fields = fetchGroup(token, id, group);
+                    index.update(fields);
+                    claimed.complete(fields);
+                } catch (RuntimeException e) {
+                    abandon(key, claimed, e);
+                    throw e;
+                }
+                return await(claimed.fields);
+            }
+            // another caller claimed the load first, so wait for theirs
+        }
+    }
+
+    /**
+     * Returns the customers with the given IDs, loading every field group that isn't cached or has expired in a
+     * single database fetch of whole records.
+     *
+     * @param token the authentication token to load with
+     * @param ids   the customer IDs
+     * @return the customers, keyed by ID
+     */
+    public Map<Integer, CustomerImpl> getAll(AuthToken token, Collection<Integer> ids) {
+        Map<Integer, CustomerImpl> result = new HashMap<>();
+        for (Map.Entry<Integer, CustomerRecord> record : getAllRecords(token, ids).entrySet()) {
+            result.put(record.getKey(), new CustomerImpl(record.getKey(), record.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the searchable customer fields, first loading every customer into it if it hasn't been
+     * built or has expired, and reloading any customer invalidated since it was indexed.
+     *
+     * @param token the authentication token to load with
+     * @param ids   the IDs of every customer
+     * @return the index
+     */
+    public CustomerIndex getIndex(AuthToken token, Collection<Integer> ids) {
+        if (isIndexExpired() || !unindexed.isEmpty()) {
+            synchronized (indexLock) { // callers arriving during a build wait for it rather than starting their own
+                if (isIndexExpired()) {
+                    long startedAt = System.nanoTime();
+                    unindexed.clear(); // reloaded along with everyone else
+                    for (CustomerRecord record : getAllRecords(token, ids).values()) {
+                        index.update(record); // those loaded just now were indexed as they arrived; this adds the rest
+                    }
+                    index.retainAll(ids);
+                    indexedAt = startedAt;
+                } else if (!unindexed.isEmpty()) {
+                    List<Integer> stale = new ArrayList<>(unindexed);
+                    unindexed.removeAll(stale);
+                    getAllRecords(token, stale); // indexed as they arrive
+                }
+            }
+        }
+        return index;
+    }
+
+    private boolean isIndexExpired() {
+        long builtAt = indexedAt;
+        return Long.MIN_VALUE == builtAt || System.nanoTime() - builtAt >= ttlNanos;
+    }
+
+    /**
+     * Returns the records of the customers with the given IDs, loading as getAll(AuthToken, Collection) does.
+     */
+    private Map<Integer, CustomerRecord> getAllRecords(AuthToken token, Collection<Integer> ids) {
+        Map<Long, Entry> claimed = new HashMap<>();
+        Set<Integer> toFetch = new HashSet<>();
+        for (Integer id : ids) {
+            for (CustomerFieldGroup group : CustomerFieldGroup.values()) {
+                long key = key(id, group);
+                Entry entry = entries.get(key);
+                if (!isLive(entry)) {
+                    Entry load = claim(key, entry);
+                    if (null != load) {
+                        claimed.put(key, load);
+                        toFetch.add(id);
+                    }
+                }
+            }
+        }
+
+        if (!claimed.isEmpty()) {
+            misses.add(claimed.size());
+            try {
+                Map<Integer, CustomerRecord> records = new HashMap<>();
+                for (CustomerRecord record : database.get().getCustomerRecords(token, toFetch)) {
+                    records.put(record.getId(), record);
+                }
+
+                for (Integer id : toFetch) {
+                    // Anything the database didn't return doesn't exist, which matches loading it individually
+                    CustomerRecord record = records.getOrDefault(id, new CustomerRecord(id, Collections.emptyMap()));
+                    index.update(record);
+                    for (CustomerFieldGroup group : CustomerFieldGroup.values()) {
+                        Entry load = claimed.get(key(id, group));
+                        if (null != load) {
+                            load.complete(record.select(group.getFieldNames()));
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (Map.Entry<Long, Entry> load : claimed.entrySet()) {
+                    if (!load.getValue().fields.isDone()) {
+                        abandon(load.getKey(), load.getValue(), e);
+                    }
+                }
+                throw e;
+            }
+        }
+
+        Map<Integer, CustomerRecord> result = new HashMap<>();
+        for (Integer id : ids) {
+            Map<String, String> fields = new HashMap<>();
+            for (CustomerFieldGroup group : CustomerFieldGroup.values()) {
+                Entry load = claimed.get(key(id, group));
+                // others may still be loading the groups we didn't claim
+                CustomerRecord record = null == load ? getGroup(token, id, group) : await(load.fields);
+                for (String fieldName : group.getFieldNames()) {
+                    fields.put(fieldName, record.getField(fieldName));
+                }
+            }
+            result.put(id, new CustomerRecord(id, fields));
+        }
+        return result;
+    }
+
+    /**
+     * Drops the customer with the given ID, so the next read loads it again.
+     *
+     * @param id the customer ID
+     */
+    public void invalidate(int id) {
+        boolean removed = false;
+        for (CustomerFieldGroup group : CustomerFieldGroup.values()) {
+            removed |= null != entries.remove(key(id, group));
+        }
+        if (removed) {
+            invalidations.increment();
+        }
+        unindexed.add(id);
+    }
+
+    /**
+     * Drops every customer.
+     */
+    public void invalidateAll() {
+        invalidations.add(entries.size());
+        entries.clear();
+        indexedAt = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the number of customer field groups cached
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return the fraction of reads served without waiting for a load of their own, 0 before the first read
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return 0 == total ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CustomerCache[%d field groups, %d hits, %d misses, %.1f%% hit rate, %d refreshes, "
+                + "%d invalidations]", size(), getHitCount(), getMissCount(), getHitRate() * 100, getRefreshCount(),
+                getInvalidationCount());
+    }
+
+    /**
+     * An entry is live while it is loading, or loaded and not yet expired.
+     */
+    private boolean isLive(Entry entry) {
+        if (null == entry) {
+            return false;
+        }
+        if (!entry.fields.isDone()) {
+            return true;
+        }
+        return !entry.fields.isCompletedExceptionally() && System.nanoTime() - entry.loadedAt < ttlNanos;
+    }
+
+    private static long key(int id, CustomerFieldGroup group) {
+        return ((long) id << 8) | group.ordinal();
+    }
+
+    private CustomerRecord fetchGroup(AuthToken token, int id, CustomerFieldGroup group) {
+        CustomerRecord record = database.get().getCustomerFields(token, id, group.getFieldNames());
+        return null == record ? new CustomerRecord(id, Collections.emptyMap()) : record;
+    }
+
+    /**
+     * Puts a new entry in place of the given missing or stale one.
+     *
+     * @return the new entry for the caller to load, null if another caller got there first
+     */
+    private Entry claim(long key, Entry stale) {
+        Entry load = new Entry();
+        boolean claimed = null == stale ? null == entries.putIfAbsent(key, load) : entries.replace(key, stale, load);
+        return claimed ? load : null;
+    }
+
+    private void abandon(long key, Entry load, RuntimeException e) {
+        entries.remove(key, load); // so the next read tries again
+        load.fields.completeExceptionally(e);
+    }
+
+    private void refreshIfDue(AuthToken token, int id, CustomerFieldGroup group, Entry entry) {
+        if (!entry.fields.isDone() || System.nanoTime() - entry.loadedAt < refreshAfterNanos
+                || !entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        REFRESHERS.execute(() -> {
+            try {
+                Entry refreshed = new Entry();
+                CustomerRecord fields = fetchGroup(token, id, group);
+                index.update(fields);
+                refreshed.complete(fields);
+                if (entries.replace(key(id, group), entry, refreshed)) {
+                    refreshes.increment();
+                }
+            } catch (RuntimeException e) {
+                entry.refreshing.set(false); // e.g. the session logged out; a later read will try again
+            }
+        });
+    }
+
+    private static CustomerRecord await(CompletableFuture<CustomerRecord> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause(); // e.g. a SecurityException, as loading directly would throw
+            }
+            throw e;
+        }
+    }
+}
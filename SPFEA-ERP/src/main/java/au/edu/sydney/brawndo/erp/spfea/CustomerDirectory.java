@@ -0,0 +1,199 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The CustomerDirectory is the customer data shared by every session of a SessionManager: the customer IDs, loaded
+ * once, and the customers themselves, kept in a CustomerCache that by default is shared with the whole process. It is
+ * safe to use from multiple threads.
+ *
+ * Each session reads the directory through its own CustomerProxy objects, which load anything missing with that
+ * session's token. Each customer is loaded once: a request for a customer that is already being loaded, for example by
+ * a warm-up, waits for that load rather than starting another.
+ */
+public class CustomerDirectory {
+    // Shared by every directory; the threads only ever wait on the database, so they are cheap to run many of
+    private static final ExecutorService LOADERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "customer-loader");
+        thread.setDaemon(true); // a warm-up is only ever a head start, so it never holds the process open
+        return thread;
+    });
+
+    private volatile List<Integer> customerIDs; // null until first loaded, then never changed
+    private volatile Set<Integer> customerIDSet;
+    private final CustomerCache cache;
+    private final Object customerIDLock = new Object();
+    private CustomerWarmUp warmUp; // guarded by this
+
+    /**
+     * Constructs a CustomerDirectory backed by the process-wide customer cache. The customer IDs are taken from the
+     * warm-start snapshot, if there is one and it is still fresh.
+     */
+    public CustomerDirectory() {
+        this(CustomerCache.getInstance());
+
+        WarmStartSnapshot snapshot = WarmStartSnapshot.getStartup();
+        if (null != snapshot && null != snapshot.getCustomerIDs() && cache.isFresh(snapshot)) {
+            setCustomerIDs(snapshot.getCustomerIDs());
+        }
+    }
+
+    /**
+     * Constructs a CustomerDirectory.
+     *
+     * @param cache the cache to keep customers in
+     */
+    public CustomerDirectory(CustomerCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the IDs of every customer, loading them from the database the first time.
+     *
+     * @param token the authentication token to load with
+     * @return the customer IDs, unmodifiable
+     */
+    public List<Integer> getCustomerIDs(AuthToken token) {
+        List<Integer> ids = customerIDs;
+        if (null == ids) {
+            synchronized (customerIDLock) { // callers arriving while the IDs load wait for that load
+                ids = customerIDs;
+                if (null == ids) {
+                    ids = setCustomerIDs(TestDatabase.getInstance().getCustomerIDs(token));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the customer IDs if they have been loaded, unmodifiable, otherwise null
+     */
+    public List<Integer> getLoadedCustomerIDs() {
+        return customerIDs;
+    }
+
+    private List<Integer> setCustomerIDs(List<Integer> loaded) {
+        List<Integer> ids = Collections.unmodifiableList(new ArrayList<>(loaded));
+        customerIDSet = new HashSet<>(ids);
+        customerIDs = ids;
+        return ids;
+    }
+
+    /**
+     * @param token the authentication token to load the customer IDs with, if they haven't been yet
+     * @param id    the customer ID
+     * @return true if there is a customer with the given ID
+     */
+    public boolean isCustomer(AuthToken token, int id) {
+        getCustomerIDs(token);
+        return customerIDSet.contains(id);
+    }
+
+    /**
+     * Returns one field of a customer, loading the field's group from the database if it isn't cached.
+     *
+     * @param token     the authentication token to load with
+     * @param id        the customer ID
+     * @param fieldName the field name
+     * @return the field value, null if the customer has no value for the field
+     */
+    public String getField(AuthToken token, int id, String fieldName) {
+        return cache.getField(token, id, fieldName);
+    }
+
+    /**
+     * Returns the customers with the given IDs, loading those that aren't cached in a single database fetch.
+     *
+     * @param token the authentication token to load with
+     * @param ids   the customer IDs
+     * @return the customers, keyed by ID
+     */
+    public Map<Integer, CustomerImpl> getCustomers(AuthToken token, Collection<Integer> ids) {
+        return cache.getAll(token, ids);
+    }
+
+    /**
+     * Finds the customers with the given value in a searchable field, building the search index from one bulk load of
+     * every customer the first time.
+     *
+     * @param token     the authentication token to load with
+     * @param fieldName the field name, one of CustomerIndex.INDEXED_FIELDS
+     * @param value     the value to match, ignoring case
+     * @return the IDs of the matching customers, in ascending order
+     * @throws IllegalArgumentException if the field isn't searchable
+     */
+    public List<Integer> findCustomers(AuthToken token, String fieldName, String value) {
+        return cache.getIndex(token, getCustomerIDs(token)).find(fieldName, value);
+    }
+
+    /**
+     * Finds the customers with the given first, last or full name, building the search index as
+     * findCustomers(AuthToken, String, String) does.
+     *
+     * @param token the authentication token to load with
+     * @param name  the name to match, ignoring case
+     * @return the IDs of the matching customers, in ascending order
+     */
+    public List<Integer> findCustomersByName(AuthToken token, String name) {
+        return cache.getIndex(token, getCustomerIDs(token)).findByName(name);
+    }
+
+    /**
+     * @return the cache customers are kept in, for its statistics and to invalidate customers
+     */
+    public CustomerCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Starts loading every customer in the background, splitting them into at most the given number of fetches that
+     * run at the same time. Only one warm-up runs per directory, so this returns the running or finished warm-up if
+     * there is one.
+     *
+     * @param token       the authentication token to load with
+     * @param parallelism the most fetches to run at the same time
+     * @return the warm-up, to follow its progress
+     */
+    public synchronized CustomerWarmUp warmUp(AuthToken token, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+
+        if (null != warmUp && !warmUp.getCompletion().isCompletedExceptionally()) {
+            return warmUp;
+        }
+
+        CustomerWarmUp started = new CustomerWarmUp();
+        warmUp = started;
+        CompletableFuture.runAsync(() -> {
+            List<Integer> ids = getCustomerIDs(token);
+            started.start(ids.size());
+
+            int chunkSize = Math.max(1, (ids.size() + parallelism - 1) / parallelism);
+            List<CompletableFuture<Void>> chunks = new ArrayList<>();
+            for (int from = 0; from < ids.size(); from += chunkSize) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + chunkSize));
+                chunks.add(CompletableFuture.runAsync(() -> {
+                    cache.getAll(token, chunk); // returns once every customer in the chunk has arrived
+                    started.loaded(chunk.size());
+                }, LOADERS));
+            }
+            CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).join();
+        }, LOADERS).whenComplete((ignored, error) -> started.finish(error));
+
+        return started;
+    }
+}
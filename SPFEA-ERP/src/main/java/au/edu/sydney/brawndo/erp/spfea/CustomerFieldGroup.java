@@ -0,0 +1,44 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The groups of customer fields that are loaded together. Callers tend to need a whole group at once, like every line
+ * of a postal address, and rarely anything outside it, so a customer is loaded one group at a time as each is used.
+ */
+public enum CustomerFieldGroup {
+    IDENTITY("fName", "lName"),
+    CONTACT("phoneNumber", "emailAddress"),
+    POSTAL("address", "suburb", "state", "postCode"),
+    BUSINESS("merchandiser", "businessName"),
+    PIGEON("pigeonCoopID");
+
+    private final List<String> fieldNames;
+
+    CustomerFieldGroup(String... fieldNames) {
+        this.fieldNames = Collections.unmodifiableList(Arrays.asList(fieldNames));
+    }
+
+    /**
+     * @return the names of the fields in the group, as accepted by TestDatabase.getCustomerField
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * @param fieldName a customer field name
+     * @return the group the field belongs to
+     * @throws IllegalArgumentException if there is no such field
+     */
+    public static CustomerFieldGroup of(String fieldName) {
+        for (CustomerFieldGroup group : values()) {
+            if (group.fieldNames.contains(fieldName)) {
+                return group;
+            }
+        }
+        throw new IllegalArgumentException("Invalid customer field " + fieldName);
+    }
+}
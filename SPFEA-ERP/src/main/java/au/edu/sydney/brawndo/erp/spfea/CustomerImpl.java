@@ -2,6 +2,7 @@ package au.edu.sydney.brawndo.erp.spfea;
 
 import au.edu.sydney.brawndo.erp.auth.AuthToken;
 import au.edu.sydney.brawndo.erp.contact.Merchandiser;
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
 import au.edu.sydney.brawndo.erp.database.TestDatabase;
 import au.edu.sydney.brawndo.erp.ordering.Customer;
 
@@ -22,20 +23,33 @@ public class CustomerImpl implements Customer {
 
 
     public CustomerImpl(AuthToken token, int id) {
+        this(id, TestDatabase.getInstance().getCustomerRecord(token, id));
+    }
 
+    /**
+     * Constructs a CustomerImpl from a customer record that has already been fetched, for example as part of a
+     * multi-customer load.
+     *
+     * @param id     the customer ID
+     * @param record the customer's database record, null if the customer doesn't exist
+     */
+    public CustomerImpl(int id, CustomerRecord record) {
         this.id = id;
-        this.fName = TestDatabase.getInstance().getCustomerField(token, id, "fName");
-        this.lName = TestDatabase.getInstance().getCustomerField(token, id, "lName");
-        this.phoneNumber = TestDatabase.getInstance().getCustomerField(token, id, "phoneNumber");
-        this.emailAddress = TestDatabase.getInstance().getCustomerField(token, id, "emailAddress");
-        this.address = TestDatabase.getInstance().getCustomerField(token, id, "address");
-        this.suburb = TestDatabase.getInstance().getCustomerField(token, id, "suburb");
-        this.state = TestDatabase.getInstance().getCustomerField(token, id, "state");
-        this.postCode = TestDatabase.getInstance().getCustomerField(token, id, "postCode");
-        this.merchandiser = TestDatabase.getInstance().getCustomerField(token, id, "merchandiser");
-        this.businessName = TestDatabase.getInstance().getCustomerField(token, id, "businessName");
-        this.pigeonCoopID = TestDatabase.getInstance().getCustomerField(token, id, "pigeonCoopID");
-
+        if (null == record) {
+            return;
+        }
+
+        this.fName = record.getField("fName");
+        this.lName = record.getField("lName");
+        this.phoneNumber = record.getField("phoneNumber");
+        this.emailAddress = record.getField("emailAddress");
+        this.address = record.getField("address");
+        this.suburb = record.getField("suburb");
+        this.state = record.getField("state");
+        this.postCode = record.getField("postCode");
+        this.merchandiser = record.getField("merchandiser");
+        this.businessName = record.getField("businessName");
+        this.pigeonCoopID = record.getField("pigeonCoopID");
     }
 
     public int getId() {
@@ -0,0 +1,175 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The CustomerIndex maps the values of the searchable customer fields back to the customers that have them, so a
+ * search is a map lookup rather than a read of every customer. Values are matched whole, ignoring case and extra
+ * whitespace.
+ *
+ * The index is fed the customer records the CustomerCache loads, so it is only as current as the cache. It is safe to
+ * use from multiple threads.
+ */
+public class CustomerIndex {
+
+    /**
+     * The names of the customer fields that can be searched on.
+     */
+    public static final List<String> INDEXED_FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "fName",
+            "lName",
+            "suburb",
+            "state",
+            "postCode",
+            "merchandiser",
+            "businessName"
+    ));
+
+    private static final String FULL_NAME = "name"; // "fName lName", indexed alongside the fields
+
+    private final Map<String, Map<String, Set<Integer>>> postings = new HashMap<>(); // field -> value -> customer IDs
+    private final Map<Integer, Map<String, String>> indexed = new HashMap<>(); // customer ID -> field -> value
+
+    /**
+     * Constructs an empty CustomerIndex.
+     */
+    public CustomerIndex() {
+        for (String fieldName : INDEXED_FIELDS) {
+            postings.put(fieldName, new HashMap<>());
+        }
+        postings.put(FULL_NAME, new HashMap<>());
+    }
+
+    /**
+     * Indexes the searchable fields a record holds, replacing what was indexed for them before. Fields the record
+     * doesn't hold, for example because only some columns were fetched, are left as they were.
+     *
+     * @param record the customer record
+     */
+    public synchronized void update(CustomerRecord record) {
+        Map<String, String> values = indexed.computeIfAbsent(record.getId(), id -> new HashMap<>());
+        boolean nameChanged = false;
+        for (String fieldName : INDEXED_FIELDS) {
+            if (record.hasField(fieldName)) {
+                nameChanged |= index(record.getId(), values, fieldName, normalise(record.getField(fieldName)))
+                        && ("fName".equals(fieldName) || "lName".equals(fieldName));
+            }
+        }
+
+        if (nameChanged) {
+            String fName = values.get("fName");
+            String lName = values.get("lName");
+            index(record.getId(), values, FULL_NAME, null == fName || null == lName ? null : fName + " " + lName);
+        }
+        if (values.isEmpty()) {
+            indexed.remove(record.getId()); // e.g. a customer that doesn't exist
+        }
+    }
+
+    /**
+     * Drops every customer not in the given collection, for example because they have been removed from the database.
+     *
+     * @param ids the IDs of the customers to keep
+     */
+    public synchronized void retainAll(Collection<Integer> ids) {
+        Set<Integer> keep = new HashSet<>(ids);
+        for (Integer id : new ArrayList<>(indexed.keySet())) {
+            if (!keep.contains(id)) {
+                Map<String, String> values = indexed.get(id);
+                for (String fieldName : new ArrayList<>(values.keySet())) {
+                    index(id, values, fieldName, null);
+                }
+                indexed.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Finds the customers with the given value in a field.
+     *
+     * @param fieldName the field name, one of INDEXED_FIELDS
+     * @param value     the value to match, ignoring case
+     * @return the IDs of the matching customers, in ascending order
+     * @throws IllegalArgumentException if the field isn't indexed
+     */
+    public synchronized List<Integer> find(String fieldName, String value) {
+        if (!INDEXED_FIELDS.contains(fieldName)) {
+            throw new IllegalArgumentException("Customer field " + fieldName + " is not searchable");
+        }
+
+        return new ArrayList<>(lookup(fieldName, value));
+    }
+
+    /**
+     * Finds the customers with the given first name, last name or full name.
+     *
+     * @param name the name to match, ignoring case
+     * @return the IDs of the matching customers, in ascending order
+     */
+    public synchronized List<Integer> findByName(String name) {
+        Set<Integer> result = new TreeSet<>(lookup("fName", name));
+        result.addAll(lookup("lName", name));
+        result.addAll(lookup(FULL_NAME, name));
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * @return the number of customers indexed
+     */
+    public synchronized int size() {
+        return indexed.size();
+    }
+
+    private Set<Integer> lookup(String fieldName, String value) {
+        String key = normalise(value);
+        if (null == key) {
+            return Collections.emptySet();
+        }
+        return postings.get(fieldName).getOrDefault(key, Collections.emptySet());
+    }
+
+    /**
+     * Moves a customer's entry for a field to a new value.
+     *
+     * @return true if the value changed
+     */
+    private boolean index(int id, Map<String, String> values, String fieldName, String value) {
+        String old = null == value ? values.remove(fieldName) : values.put(fieldName, value);
+        if (null == value ? null == old : value.equals(old)) {
+            return false;
+        }
+
+        Map<String, Set<Integer>> field = postings.get(fieldName);
+        if (null != old) {
+            Set<Integer> ids = field.get(old);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                field.remove(old);
+            }
+        }
+        if (null != value) {
+            field.computeIfAbsent(value, key -> new TreeSet<>()).add(id);
+        }
+        return true;
+    }
+
+    private static String normalise(String value) {
+        if (null == value) {
+            return null;
+        }
+
+        String normalised = value.trim().replaceAll("\\s+", " ").toLowerCase();
+        return normalised.isEmpty() ? null : normalised;
+    }
+}
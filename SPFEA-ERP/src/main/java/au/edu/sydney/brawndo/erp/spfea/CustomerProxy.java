@@ -5,95 +5,107 @@ import au.edu.sydney.brawndo.erp.ordering.Customer;
 
 /**
  * The CustomerProxy class serves as a virtual proxy for a customer, lazily loading the customer data when needed.
+ * Fields are loaded a CustomerFieldGroup at a time on first use, so sending an invoice by SMS only fetches the phone
+ * number and email address, not the postal address or business details.
+ *
+ * The data comes from a CustomerDirectory, which may be shared with other sessions, so it is only fetched from the
+ * database if no session has loaded it yet. The proxy doesn't hold on to the data, so it sees the customer cache's
+ * refreshes and invalidations.
  */
 public class CustomerProxy implements Customer {
-    private AuthToken token;
+    private final AuthToken token;
     private final int id;
-    private CustomerImpl customer;
+    private final CustomerDirectory directory;
 
     /**
-     * Constructs a CustomerProxy instance.
+     * Constructs a CustomerProxy instance with a directory of its own.
      *
      * @param token the authentication token
      * @param id    the customer ID
      */
     public CustomerProxy(AuthToken token, int id) {
-        this.token = token;
-        this.id = id;
+        this(token, id, new CustomerDirectory());
     }
 
     /**
-     * Lazily loads the customer data.
+     * Constructs a CustomerProxy instance.
      *
-     * @return the loaded customer instance
+     * @param token     the authentication token of the session the proxy belongs to
+     * @param id        the customer ID
+     * @param directory the directory to load the customer from
      */
-    private CustomerImpl loadCustomer() {
-        if (customer == null) {
-            customer = new CustomerImpl(token, id);
-        }
-        return customer;
+    public CustomerProxy(AuthToken token, int id, CustomerDirectory directory) {
+        this.token = token;
+        this.id = id;
+        this.directory = directory;
     }
 
-    public void setToken(AuthToken token) {
-        this.token = token;
+    /**
+     * Lazily loads one field, along with the rest of its group.
+     *
+     * @param fieldName the field name
+     * @return the field value
+     */
+    private String loadField(String fieldName) {
+        return directory.getField(token, id, fieldName);
     }
 
     public int getId() {
-        return loadCustomer().getId();
+        return id;
     }
 
     @Override
     public String getfName() {
-        return loadCustomer().getfName();
+        return loadField("fName");
     }
 
     @Override
     public String getlName() {
-        return loadCustomer().getlName();
+        return loadField("lName");
     }
 
     @Override
     public String getPhoneNumber() {
-        return loadCustomer().getPhoneNumber();
+        return loadField("phoneNumber");
     }
 
     @Override
     public String getEmailAddress() {
-        return loadCustomer().getEmailAddress();
+        return loadField("emailAddress");
     }
 
     @Override
     public String getAddress() {
-        return loadCustomer().getAddress();
+        return loadField("address");
     }
 
     @Override
     public String getSuburb() {
-        return loadCustomer().getSuburb();
+        return loadField("suburb");
     }
 
     @Override
     public String getState() {
-        return loadCustomer().getState();
+        return loadField("state");
     }
 
     @Override
     public String getPostCode() {
-        return loadCustomer().getPostCode();
+        return loadField("postCode");
     }
 
     @Override
     public String getMerchandiser() {
-        return loadCustomer().getMerchandiser();
+        return loadField("merchandiser");
     }
 
     @Override
     public String getBusinessName() {
-        return loadCustomer().getBusinessName();
+        return loadField("businessName");
     }
 
     @Override
     public String getPigeonCoopID() {
-        return loadCustomer().getPigeonCoopID();
+        return loadField("pigeonCoopID");
     }
 }
\ No newline at end of file
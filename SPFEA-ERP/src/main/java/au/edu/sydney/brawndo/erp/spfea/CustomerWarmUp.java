@@ -0,0 +1,66 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A CustomerWarmUp tracks the background load of every customer into a CustomerDirectory, so its progress can be
+ * reported while sessions carry on.
+ */
+public class CustomerWarmUp {
+    private volatile int total = -1; // unknown until the customer IDs have been loaded
+    private final AtomicInteger loaded = new AtomicInteger();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    void start(int total) {
+        this.total = total;
+    }
+
+    void loaded(int count) {
+        loaded.addAndGet(count);
+    }
+
+    void finish(Throwable error) {
+        if (null == error) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * @return the number of customers being loaded, -1 until the customer IDs have been loaded
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of customers loaded so far, including any sessions had already loaded
+     */
+    public int getLoadedCount() {
+        return loaded.get();
+    }
+
+    /**
+     * @return true once every customer has been loaded, or the warm-up has failed
+     */
+    public boolean isDone() {
+        return done.isDone();
+    }
+
+    /**
+     * @return a future completed once every customer has been loaded
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return done;
+    }
+
+    @Override
+    public String toString() {
+        if (total < 0) {
+            return "Loading customer IDs";
+        }
+        return "Loaded " + loaded.get() + " of " + total + " customers" + (done.isCompletedExceptionally() ? " (failed)" : "");
+    }
+}
@@ -0,0 +1,115 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+/**
+ * A FlushPolicy decides when an OrderUoW commits on its own rather than waiting for logout, so long sessions spread
+ * their writes out, keep a bounded set of pending orders and lose less if the process dies.
+ *
+ * A UoW can flush once a number of orders are pending, once it has been idle for a while with changes pending, both
+ * (whichever comes first) or never. A policy can be chosen at startup with the brawndo.uow.flush system property, see
+ * parse(String).
+ */
+public class FlushPolicy {
+    private static final FlushPolicy NEVER = new FlushPolicy(0, 0);
+
+    private final int maxPendingOrders;
+    private final long idleMillis;
+
+    private FlushPolicy(int maxPendingOrders, long idleMillis) {
+        this.maxPendingOrders = maxPendingOrders;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * @return a policy that only commits on logout
+     */
+    public static FlushPolicy never() {
+        return NEVER;
+    }
+
+    /**
+     * @param maxPendingOrders the number of pending orders that triggers a flush
+     * @return a policy that flushes once that many orders are pending
+     */
+    public static FlushPolicy pendingOrders(int maxPendingOrders) {
+        return never().withPendingOrders(maxPendingOrders);
+    }
+
+    /**
+     * @param idleMillis how long the UoW must go without a change before it flushes, in milliseconds
+     * @return a policy that flushes pending orders once the UoW has been idle that long
+     */
+    public static FlushPolicy idle(long idleMillis) {
+        return never().withIdleMillis(idleMillis);
+    }
+
+    /**
+     * @param maxPendingOrders the number of pending orders that triggers a flush
+     * @return a copy of this policy that also flushes once that many orders are pending
+     */
+    public FlushPolicy withPendingOrders(int maxPendingOrders) {
+        if (maxPendingOrders < 1) {
+            throw new IllegalArgumentException("Pending order limit must be positive");
+        }
+        return new FlushPolicy(maxPendingOrders, idleMillis);
+    }
+
+    /**
+     * @param idleMillis how long the UoW must go without a change before it flushes, in milliseconds
+     * @return a copy of this policy that also flushes pending orders once the UoW has been idle that long
+     */
+    public FlushPolicy withIdleMillis(long idleMillis) {
+        if (idleMillis < 1) {
+            throw new IllegalArgumentException("Idle time must be positive");
+        }
+        return new FlushPolicy(maxPendingOrders, idleMillis);
+    }
+
+    /**
+     * @param pendingOrders the number of orders the UoW is tracking
+     * @return true if that many pending orders should be flushed now
+     */
+    public boolean shouldFlush(int pendingOrders) {
+        return maxPendingOrders > 0 && pendingOrders >= maxPendingOrders;
+    }
+
+    /**
+     * @return how long the UoW must be idle before it flushes, in milliseconds, 0 if it never flushes for being idle
+     */
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Builds a policy from a text specification: {@code never}, or a comma separated list of {@code pending:<orders>}
+     * and {@code idle:<seconds>}, e.g. {@code pending:50,idle:30}.
+     *
+     * @param spec the specification
+     * @return the matching policy
+     * @throws IllegalArgumentException if the specification isn't valid
+     */
+    public static FlushPolicy parse(String spec) {
+        if (spec.trim().equalsIgnoreCase("never")) {
+            return never();
+        }
+
+        FlushPolicy policy = never();
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid flush policy " + spec);
+            }
+
+            switch (pair[0].toLowerCase()) {
+                case "pending":
+                    policy = policy.withPendingOrders(Integer.parseInt(pair[1].trim()));
+                    break;
+                case "idle":
+                    policy = policy.withIdleMillis(Math.round(Double.parseDouble(pair[1].trim()) * 1000));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown flush policy " + spec);
+            }
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,220 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.database.OrderSnapshot;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The OrderCache holds recently read committed orders so repeated views of the same orders don't go back to the
+ * database. Only stored OrderSnapshots are cached: they are immutable, so a cached order can be handed out as is.
+ *
+ * A cached order is served without asking the database, so the cache has to be told when an order changes instead:
+ * a session invalidates the orders it edits or removes, and once a commit has been written the committer invalidates
+ * the orders it wrote in every open cache, so sessions see each other's changes. Each order is also cached with the
+ * version it was read at, which is what the session's own changes to it are based on.
+ *
+ * The cache is bounded by weight rather than entry count, where an order weighs one plus its number of lines, so a
+ * few very large orders can't crowd out memory. The least recently used orders are evicted first.
+ */
+public class OrderCache {
+    private static final Set<OrderCache> OPEN = ConcurrentHashMap.newKeySet(); // the caches of logged in sessions
+
+    private final long maxWeight;
+    private final Map<Integer, Entry> orders = new LinkedHashMap<>(16, 0.75f, true); // access order, LRU first
+    private long weight;
+    private long generation; // counts invalidations, so a read that raced one isn't cached
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructs an OrderCache.
+     *
+     * @param maxWeight the most order lines, plus one per order, to hold; 0 disables the cache
+     */
+    public OrderCache(long maxWeight) {
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Invalidates the given orders in the cache of every logged in session, because they have been written.
+     *
+     * @param ids the IDs of the orders
+     */
+    public static void invalidateOpen(Collection<Integer> ids) {
+        for (OrderCache cache : OPEN) {
+            for (Integer id : ids) {
+                cache.invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Starts receiving the invalidations of orders other sessions write. Called at login.
+     */
+    public void open() {
+        OPEN.add(this);
+    }
+
+    /**
+     * Stops receiving invalidations and drops every cached order, as nothing keeps them current any more. Called at
+     * logout.
+     */
+    public void close() {
+        OPEN.remove(this);
+        clear();
+    }
+
+    /**
+     * Returns the cached order with the given ID, counting a hit or a miss.
+     *
+     * @param id the order ID
+     * @return the cached order, null if it isn't cached
+     */
+    public synchronized OrderSnapshot get(int id) {
+        Entry entry = orders.get(id);
+        if (null == entry) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.order;
+    }
+
+    /**
+     * Returns the version the order with the given ID was cached at, without counting a hit or a miss.
+     *
+     * @param id the order ID
+     * @return the version, OrderCommitter.UNKNOWN_VERSION if the order isn't cached
+     */
+    public synchronized long getVersion(int id) {
+        Entry entry = orders.get(id);
+        return null == entry ? OrderCommitter.UNKNOWN_VERSION : entry.version;
+    }
+
+    /**
+     * Returns the cache's generation, to read before reading an order from the database and pass to put().
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches an order read from the database, evicting the least recently used orders if needed. Orders that aren't
+     * snapshots, or that outweigh the whole cache, are not cached.
+     *
+     * @param order   the order, may be null
+     * @param version the version of the order, read before the order itself
+     */
+    public void put(Order order, long version) {
+        put(order, version, getGeneration());
+    }
+
+    /**
+     * Caches an order read from the database as put(Order, long) does, unless an order was invalidated after the
+     * given generation. The read may then have missed a change, so caching it could serve the order stale.
+     *
+     * @param order      the order, may be null
+     * @param version    the version of the order, read before the order itself
+     * @param generation the cache's generation, read before the order
+     */
+    public synchronized void put(Order order, long version, long generation) {
+        if (!(order instanceof OrderSnapshot) || generation != this.generation) {
+            return;
+        }
+
+        OrderSnapshot snapshot = (OrderSnapshot) order;
+        long orderWeight = weigh(snapshot);
+        if (orderWeight > maxWeight) {
+            return;
+        }
+
+        drop(snapshot.getOrderID());
+        orders.put(snapshot.getOrderID(), new Entry(snapshot, version));
+        weight += orderWeight;
+
+        Iterator<Entry> eldest = orders.values().iterator();
+        while (weight > maxWeight) {
+            weight -= weigh(eldest.next().order);
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the order with the given ID, if cached, because it has changed.
+     *
+     * @param id the order ID
+     */
+    public synchronized void invalidate(int id) {
+        generation++;
+        drop(id);
+    }
+
+    /**
+     * Drops every cached order. The statistics are kept.
+     */
+    public synchronized void clear() {
+        generation++;
+        orders.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return orders.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OrderCache[" + orders.size() + " orders, " + weight + "/" + maxWeight + " lines, " + hits + " hits, "
+                + misses + " misses, " + evictions + " evictions]";
+    }
+
+    private void drop(int id) {
+        Entry removed = orders.remove(id);
+        if (null != removed) {
+            weight -= weigh(removed.order);
+        }
+    }
+
+    private static long weigh(OrderSnapshot order) {
+        return 1 + order.getAllProducts().size();
+    }
+
+    private static final class Entry {
+        private final OrderSnapshot order;
+        private final long version;
+
+        private Entry(OrderSnapshot order, long version) {
+            this.order = order;
+            this.version = version;
+        }
+    }
+}
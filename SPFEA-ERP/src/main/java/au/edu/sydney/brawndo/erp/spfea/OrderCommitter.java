@@ -0,0 +1,256 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthModule;
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.database.VersionConflict;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The OrderCommitter writes Unit of Work change sets to the database in the background (write-behind), so callers
+ * no longer wait on database write latency. Change sets are written one at a time in the order they were submitted,
+ * and the orders they contain stay visible through lookup() until the database has them. Once written, they are
+ * invalidated in every session's OrderCache.
+ *
+ * Each change set is written in a single applyChanges call, so it costs one database round trip however many orders
+ * it holds, and it lands or fails as a whole: a failed write leaves none of its orders changed.
+ *
+ * Each change set is written with the token it was submitted with, which then belongs to the committer: it is logged
+ * out once the change set has been written. Callers log in a token for the change set rather than passing a session's,
+ * so a session can log out without waiting for its last commit.
+ *
+ * A change set can carry the version each order was based on, which the database checks before writing it. Rejected
+ * changes come back as conflicts in the CommitResult.
+ */
+public class OrderCommitter {
+    /**
+     * The version of an in flight order whose write isn't version checked, so isn't known until it lands.
+     */
+    public static final long UNKNOWN_VERSION = -1;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Integer, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an OrderCommitter. The background thread is started on demand and stops when idle, so a pending
+     * write keeps the JVM alive until it has landed but an idle committer does not.
+     */
+    public OrderCommitter() {
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "order-committer"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a change set to be written to the database.
+     *
+     * @param token    the authentication token to write with, which the committer logs out once it is done with it
+     * @param database the database to write to. Resolved by the caller so the write goes to the same instance the
+     *                 caller would have used
+     * @param saves    the new and updated orders to save
+     * @param removals the IDs of the orders to remove
+     * @return a future completed with the result once the change set is in the database
+     */
+    public CompletableFuture<CommitResult> submit(AuthToken token, TestDatabase database, List<Order> saves,
+                                                  List<Integer> removals) {
+        return submit(token, database, saves, Collections.emptyMap(), removals);
+    }
+
+    /**
+     * Queues a change set to be written to the database, sending only the changed lines of orders that have a delta.
+     *
+     * @param token    the authentication token to write with, which the committer logs out once it is done with it
+     * @param database the database to write to
+     * @param saves    the new and updated orders to save
+     * @param deltas   the changed lines of saved orders that are line edits of stored orders, keyed by order ID
+     * @param removals the IDs of the orders to remove
+     * @return a future completed with the result once the change set is in the database
+     */
+    public CompletableFuture<CommitResult> submit(AuthToken token, TestDatabase database, List<Order> saves,
+                                                  Map<Integer, OrderDelta> deltas, List<Integer> removals) {
+        return submit(token, database, saves, deltas, removals, Collections.emptyMap());
+    }
+
+    /**
+     * Queues a change set to be written to the database, sending only the changed lines of orders that have a delta
+     * and checking the version of orders that have an expected version. Readers still see the whole of every saved
+     * order through lookup() until it has been written.
+     *
+     * @param token            the authentication token to write with, which the committer logs out once it is done
+     *                         with it
+     * @param database         the database to write to. Resolved by the caller so the write goes to the same instance
+     *                         the caller would have used
+     * @param saves            the new and updated orders to save
+     * @param deltas           for saved orders that are line edits of stored orders, keyed by order ID, the changed
+     *                         lines to write in place of the whole order
+     * @param removals         the IDs of the orders to remove
+     * @param expectedVersions for orders whose change was based on a known version, keyed by order ID, that version
+     * @return a future completed with the result once the change set is in the database
+     */
+    public CompletableFuture<CommitResult> submit(AuthToken token, TestDatabase database, List<Order> saves,
+                                                  Map<Integer, OrderDelta> deltas, List<Integer> removals,
+                                                  Map<Integer, Long> expectedVersions) {
+        if (saves.isEmpty() && removals.isEmpty()) {
+            logout(token);
+            return CompletableFuture.completedFuture(new CommitResult(0, 0));
+        }
+
+        List<InFlight> entries = new ArrayList<>(saves.size() + removals.size());
+        List<Integer> ids = new ArrayList<>(saves.size() + removals.size());
+        for (Order order : saves) {
+            entries.add(track(order.getOrderID(), order, expectedVersions.get(order.getOrderID())));
+            ids.add(order.getOrderID());
+        }
+        for (Integer id : removals) {
+            entries.add(track(id, null, expectedVersions.get(id)));
+            ids.add(id);
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    List<VersionConflict> conflicts = write(token, database, saves, deltas, removals, expectedVersions);
+                    int rejectedSaves = 0;
+                    for (VersionConflict conflict : conflicts) {
+                        if (!removals.contains(conflict.getOrderID())) {
+                            rejectedSaves++;
+                        }
+                    }
+                    return new CommitResult(saves.size() - rejectedSaves,
+                            removals.size() - (conflicts.size() - rejectedSaves), conflicts);
+                } finally {
+                    OrderCache.invalidateOpen(ids); // before lookup() stops serving the orders, so no session's cache
+                    release(entries);               // can serve them as they were before the write
+                    logout(token);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            release(entries);
+            logout(token);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns the pending write for the order with the given ID if one hasn't reached the database yet.
+     *
+     * @param id the order ID
+     * @return the pending write, null if there is none
+     */
+    public InFlight lookup(int id) {
+        return inFlight.get(id);
+    }
+
+    /**
+     * Returns the IDs of orders with a pending save or removal.
+     *
+     * @param deleted true for pending removals, false for pending saves
+     * @return a list of order IDs
+     */
+    public List<Integer> getInFlightIDs(boolean deleted) {
+        List<Integer> result = new ArrayList<>();
+        for (Map.Entry<Integer, InFlight> entry : inFlight.entrySet()) {
+            if (entry.getValue().isDeleted() == deleted) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops accepting change sets and waits for every queued change set to be written.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for orders to finish saving...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a change set in one call, sending the delta in place of each saved order that has one.
+     */
+    private List<VersionConflict> write(AuthToken token, TestDatabase database, List<Order> saves,
+                                        Map<Integer, OrderDelta> deltas, List<Integer> removals,
+                                        Map<Integer, Long> expectedVersions) {
+        List<Order> wholeSaves = new ArrayList<>(saves.size());
+        List<OrderDelta> lineSaves = new ArrayList<>(deltas.size());
+        for (Order order : saves) {
+            OrderDelta delta = deltas.get(order.getOrderID());
+            if (null == delta) {
+                wholeSaves.add(order);
+            } else {
+                lineSaves.add(delta);
+            }
+        }
+
+        return database.applyChanges(token, wholeSaves, lineSaves, removals, expectedVersions);
+    }
+
+    private static void logout(AuthToken token) {
+        synchronized (AuthModule.tokens) { // the same lock the database authenticates under, see TestDatabase
+            AuthModule.logout(token);
+        }
+    }
+
+    private InFlight track(int id, Order order, Long expectedVersion) {
+        InFlight entry = new InFlight(id, order, null == expectedVersion ? UNKNOWN_VERSION : expectedVersion + 1);
+        inFlight.put(id, entry);
+        return entry;
+    }
+
+    private void release(List<InFlight> entries) {
+        for (InFlight entry : entries) {
+            inFlight.remove(entry.id, entry); // a later change set may already have replaced this entry
+        }
+    }
+
+    /**
+     * A save or removal of a single order that has been handed to the committer but isn't in the database yet.
+     */
+    public static class InFlight {
+        private final int id;
+        private final Order order;
+        private final long version;
+
+        private InFlight(int id, Order order, long version) {
+            this.id = id;
+            this.order = order;
+            this.version = version;
+        }
+
+        /**
+         * @return the order being saved, null if the order is being removed
+         */
+        public Order getOrder() {
+            return order;
+        }
+
+        public boolean isDeleted() {
+            return order == null;
+        }
+
+        /**
+         * @return the version the order will have once written, UNKNOWN_VERSION if the write isn't version checked
+         */
+        public long getVersion() {
+            return version;
+        }
+    }
+}
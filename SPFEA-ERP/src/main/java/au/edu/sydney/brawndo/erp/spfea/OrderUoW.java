@@ -3,135 +3,351 @@ package au.edu.sydney.brawndo.erp.spfea;
 import au.edu.sydney.brawndo.erp.auth.AuthToken;
 import au.edu.sydney.brawndo.erp.database.TestDatabase;
 import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.Product;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * The OrderUoW class represents the Unit of Work pattern for managing orders and their state.
  * This class mitigates the need to save to DB after every order change and commits changes when user logs out
+ *
+ * Orders are tracked in an identity map keyed by order ID, and each registration moves the order through a small state
+ * machine that folds repeated changes together, so every order costs at most one database operation per commit:
+ * a new order that is edited is still just new, and a new order that is deleted is simply forgotten.
+ *
+ * A stored order changed only through registerLineChange is committed as an OrderDelta of the changed lines, so the
+ * commit scales with the edit rather than the order.
+ *
+ * Each tracked order remembers the version it was based on, which the database checks at commit, so a change to an
+ * order another session has since written comes back as a conflict in the CommitResult instead of overwriting it.
+ *
+ * A FlushPolicy can also have the UoW commit before logout, once enough orders are pending or once it has been idle for
+ * a while. The UoW is synchronized so the idle check, which runs on a shared background scheduler, can commit safely.
  */
 public class OrderUoW {
-    private Map<Order, String> objectState;
-    private AuthToken authToken;
 
     /**
-     * Constructs an OrderUoW instance with the given authentication token.
+     * The state of a tracked order.
+     */
+    private enum State {
+        NEW,     // not in the DB yet, saved on commit
+        DIRTY,   // in the DB but changed, saved on commit
+        CLEAN,   // in the DB and unchanged, nothing to do on commit
+        DELETED  // in the DB, removed on commit
+    }
+
+    private static class Entry {
+        private Order order; // null for a deleted order
+        private State state;
+        private Map<Product, Integer> lineChanges; // for a DIRTY order, null once it must be saved whole
+        private final long baseVersion; // the version the change is based on, OrderCommitter.UNKNOWN_VERSION if unchecked
+
+        private Entry(Order order, State state, long baseVersion) {
+            this.order = order;
+            this.state = state;
+            this.baseVersion = baseVersion;
+        }
+    }
+
+    private static final ScheduledExecutorService FLUSH_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "uow-auto-flush");
+        thread.setDaemon(true); // never holds the process open; logout commits whatever is left
+        return thread;
+    });
+
+    private final Map<Integer, Entry> identityMap = new LinkedHashMap<>(); // commits in registration order
+    private final Supplier<AuthToken> credentials;
+    private OrderCommitter committer;
+    private final FlushPolicy flushPolicy;
+    private final ScheduledFuture<?> idleCheck; // null if the policy never flushes for being idle
+    private long lastChangeNanos = System.nanoTime();
+
+    /**
+     * Constructs an OrderUoW instance.
+     *
+     * @param credentials logs in the token each commit is written with, which the committer logs out once the commit
+     *                    has been written. The session's own token isn't used, as logging out invalidates it while the
+     *                    last commit may still be waiting to be written
+     * @param committer   the committer that writes committed changes to the database in the background
+     */
+    public OrderUoW(Supplier<AuthToken> credentials, OrderCommitter committer) {
+        this(credentials, committer, FlushPolicy.never());
+    }
+
+    /**
+     * Constructs an OrderUoW instance that also commits whenever the given policy says to.
      *
-     * @param authToken the authentication token
+     * @param credentials logs in the token each commit is written with, see OrderUoW(Supplier, OrderCommitter)
+     * @param committer   the committer that writes committed changes to the database in the background
+     * @param flushPolicy when to commit without waiting for logout
      */
-    public OrderUoW(AuthToken authToken) {
-        this.authToken = authToken;
-        objectState = new HashMap<>();
+    public OrderUoW(Supplier<AuthToken> credentials, OrderCommitter committer, FlushPolicy flushPolicy) {
+        this.credentials = credentials;
+        this.committer = committer;
+        this.flushPolicy = flushPolicy;
+
+        long idleMillis = flushPolicy.getIdleMillis();
+        if (idleMillis > 0) {
+            long period = Math.max(1, idleMillis / 2); // an idle UoW flushes between 1 and 1.5 idle periods after its last change
+            this.idleCheck = FLUSH_SCHEDULER.scheduleWithFixedDelay(this::flushIfIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.idleCheck = null;
+        }
     }
 
     /**
-     * Registers a new order.
+     * Registers a new order. Its ID must not have been written before.
      *
      * @param order the order to register
      */
-    public void registerNew(Order order) {
-        objectState.put(order, "new");
+    public synchronized void registerNew(Order order) {
+        identityMap.put(order.getOrderID(), new Entry(order, State.NEW, 0));
+        changed();
     }
 
     /**
-     * Registers a dirty (modified) order.
+     * Registers a dirty (modified) order, saved on commit whatever its stored version.
      *
      * @param order the order to register
+     * @throws IllegalStateException if the order has been deleted
      */
     public void registerDirty(Order order) {
-        objectState.put(order, "dirty");
+        registerDirty(order, OrderCommitter.UNKNOWN_VERSION);
     }
 
     /**
-     * Registers a clean (unchanged) order.
+     * Registers a dirty (modified) order. A new order stays new, since saving it covers the change.
      *
-     * @param order the order to register
+     * @param order       the order to register
+     * @param baseVersion the version of the order the change was made to, if the order isn't already tracked
+     * @throws IllegalStateException if the order has been deleted
      */
-    public void registerClean(Order order) {
-        objectState.put(order, "clean");
+    public synchronized void registerDirty(Order order, long baseVersion) {
+        Entry entry = identityMap.get(order.getOrderID());
+        if (null == entry) {
+            identityMap.put(order.getOrderID(), new Entry(order, State.DIRTY, baseVersion));
+            changed();
+            return;
+        }
+
+        switch (entry.state) {
+            case DELETED:
+                throw new IllegalStateException("Order " + order.getOrderID() + " has been deleted");
+            case CLEAN:
+                entry.state = State.DIRTY;
+                break;
+            default:
+                break; // NEW stays NEW, DIRTY stays DIRTY
+        }
+        entry.order = order;
+        entry.lineChanges = null; // the change isn't known line by line, so the whole order is saved
+        changed();
     }
 
     /**
-     * Registers a deleted order.
+     * Registers a change to one line of an order, applied on commit whatever the order's stored version.
      *
-     * @param order the order to register
+     * @param order   the changed order
+     * @param product the product whose line changed
+     * @param qty     the new quantity
+     * @throws IllegalStateException if the order has been deleted
      */
-    public void registerDeleted(Order order) {
-        objectState.put(order, "deleted");
+    public void registerLineChange(Order order, Product product, int qty) {
+        registerLineChange(order, product, qty, OrderCommitter.UNKNOWN_VERSION);
     }
 
     /**
-     * Commits the changes made to the orders.
+     * Registers a change to one line of an order, after it has been made with setProduct. A stored order changed only
+     * this way is committed as just its changed lines; a new order is saved whole as usual.
+     *
+     * @param order       the changed order
+     * @param product     the product whose line changed
+     * @param qty         the new quantity
+     * @param baseVersion the version of the order the change was made to, if the order isn't already tracked
+     * @throws IllegalStateException if the order has been deleted
      */
-    public void commit() {
-        for (Map.Entry<Order, String> entry : objectState.entrySet()) {
-            Order order = entry.getKey();
-            String state = entry.getValue();
-            if (state.equals("new")) {
-                saveObject(order);
-            } else if (state.equals("dirty")) {
-                updateObject(order);
-            } else if (state.equals("deleted")) {
-                deleteObject(order);
-            }
+    public synchronized void registerLineChange(Order order, Product product, int qty, long baseVersion) {
+        Entry entry = identityMap.get(order.getOrderID());
+        if (null == entry) {
+            entry = new Entry(order, State.DIRTY, baseVersion);
+            entry.lineChanges = new LinkedHashMap<>();
+            identityMap.put(order.getOrderID(), entry);
+        }
+
+        switch (entry.state) {
+            case DELETED:
+                throw new IllegalStateException("Order " + order.getOrderID() + " has been deleted");
+            case CLEAN:
+                entry.state = State.DIRTY;
+                entry.lineChanges = new LinkedHashMap<>();
+                break;
+            default:
+                break;
         }
-        objectState.clear();
+        entry.order = order;
+        if (null != entry.lineChanges) {
+            entry.lineChanges.put(product, qty); // a later change to the same line replaces the earlier one
+        }
+        changed();
     }
 
     /**
-     * Saves a new order to the database.
+     * Registers a clean (unchanged) order. Has no effect on an order that is already tracked.
      *
-     * @param order the order to save
+     * @param order the order to register
      */
-    private void saveObject(Order order) {
-        TestDatabase.getInstance().saveOrder(authToken, order);
-//        objectState.put(order, "clean");
+    public synchronized void registerClean(Order order) {
+        identityMap.putIfAbsent(order.getOrderID(), new Entry(order, State.CLEAN, OrderCommitter.UNKNOWN_VERSION));
     }
 
     /**
-     * Updates an existing order in the database.
+     * Registers a deleted order.
      *
-     * @param order the order to update
+     * @param order the order to register
      */
-    private void updateObject(Order order) {
-        TestDatabase.getInstance().removeOrder(authToken, order.getOrderID());
-        TestDatabase.getInstance().saveOrder(authToken, order);
+    public synchronized void registerDeleted(Order order) {
+        registerDeleted(order.getOrderID());
     }
 
     /**
-     * Deletes an order from the database.
+     * Registers the order with the given ID as deleted, removed on commit whatever its stored version.
      *
-     * @param order the order to delete
+     * @param id the ID of the order
      */
-    private void deleteObject(Order order) {
-        Order dbOrder = TestDatabase.getInstance().getOrder(authToken, order.getOrderID());
-        if (dbOrder == null) {
-            return; // if order to be deleted doesn't exist in DB because it hasn't been committed, we can just return
+    public void registerDeleted(int id) {
+        registerDeleted(id, OrderCommitter.UNKNOWN_VERSION);
+    }
+
+    /**
+     * Registers the order with the given ID as deleted, without needing the order itself. Deleting a new order
+     * forgets it, as the DB never saw it.
+     *
+     * @param id          the ID of the order
+     * @param baseVersion the version of the order being deleted, if the order isn't already tracked
+     */
+    public synchronized void registerDeleted(int id, long baseVersion) {
+        Entry entry = identityMap.get(id);
+        if (null == entry) {
+            identityMap.put(id, new Entry(null, State.DELETED, baseVersion));
+        } else if (entry.state == State.NEW) {
+            identityMap.remove(id);
         } else {
-            TestDatabase.getInstance().removeOrder(authToken, order.getOrderID());
+            entry.state = State.DELETED;
+            entry.order = null;
+        }
+        changed();
+    }
+
+    /**
+     * Commits the changes made to the orders. New, dirty and deleted orders are grouped into a single batch so the
+     * database round trip is paid once per commit rather than once per order. The batch is handed to the committer
+     * and written in the background, so this returns without waiting on the database.
+     *
+     * @return a future completed once the changes are in the database
+     */
+    public synchronized CompletableFuture<CommitResult> commit() {
+        List<Order> saves = new ArrayList<>();
+        Map<Integer, OrderDelta> deltas = new HashMap<>();
+        List<Integer> removals = new ArrayList<>();
+        Map<Integer, Long> expectedVersions = new HashMap<>();
+
+        for (Map.Entry<Integer, Entry> tracked : identityMap.entrySet()) {
+            Entry entry = tracked.getValue();
+            if (entry.state != State.CLEAN && entry.baseVersion != OrderCommitter.UNKNOWN_VERSION) {
+                expectedVersions.put(tracked.getKey(), entry.baseVersion);
+            }
+            switch (entry.state) {
+                case NEW:
+                case DIRTY:
+                    saves.add(entry.order); // saving an existing order replaces it, so no separate remove is needed for dirty orders
+                    if (null != entry.lineChanges) {
+                        deltas.put(tracked.getKey(), new OrderDelta(tracked.getKey(), entry.lineChanges));
+                    }
+                    break;
+                case DELETED:
+                    removals.add(tracked.getKey());
+                    break;
+                default:
+                    break; // clean orders need no write
+            }
+        }
+
+        identityMap.clear();
+        if (saves.isEmpty() && removals.isEmpty()) {
+            return CompletableFuture.completedFuture(new CommitResult(0, 0)); // no need to log in a token for nothing
+        }
+
+        // The database is resolved here rather than on the committer thread so the write goes to the same instance
+        return committer.submit(credentials.get(), TestDatabase.getInstance(), saves, deltas, removals,
+                expectedVersions);
+    }
+
+    /**
+     * Stops committing in the background. Changes made afterwards wait for an explicit commit, as on logout.
+     */
+    public synchronized void stopAutoFlush() {
+        if (null != idleCheck) {
+            idleCheck.cancel(false);
+        }
+    }
+
+    private void changed() {
+        lastChangeNanos = System.nanoTime();
+        if (flushPolicy.shouldFlush(identityMap.size())) {
+            flush();
         }
     }
 
+    private synchronized void flushIfIdle() {
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(flushPolicy.getIdleMillis());
+        if (!identityMap.isEmpty() && System.nanoTime() - lastChangeNanos >= idleNanos) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        commit().whenComplete((result, e) -> {
+            if (null != e) {
+                System.err.println("Failed to save orders: " + e.getMessage());
+            }
+        });
+    }
+
     /**
      * Returns the order with the given ID if it is dirty or new. Used by SPFEAFacade to find uncommitted Orders
      *
      * @param id the ID of the order
      * @return the order with the given ID if it is dirty or new, null otherwise
      */
-    public Order getOrder(int id) {
-        for (Order order : objectState.keySet()) {
-            if (order.getOrderID() == id) {
-                if (objectState.get(order).equals("deleted") || objectState.get(order).equals("clean")) {
-                    return null;
-                } else {
-                    return order;
-                }
-            }
+    public synchronized Order getOrder(int id) {
+        Entry entry = identityMap.get(id);
+        if (null == entry || entry.state == State.DELETED || entry.state == State.CLEAN) {
+            return null;
         }
-        return null;
+        return entry.order;
+    }
+
+    /**
+     * Returns whether the order with the given ID has been deleted but not yet committed. Used by SPFEAFacade to hide
+     * such orders, which the committer or DB still hold.
+     *
+     * @param id the ID of the order
+     * @return true if the order is registered as deleted
+     */
+    public synchronized boolean isDeleted(int id) {
+        Entry entry = identityMap.get(id);
+        return null != entry && entry.state == State.DELETED;
     }
 
     /**
@@ -139,13 +355,41 @@ public class OrderUoW {
      *
      * @return a list of IDs for new orders
      */
-    public List<Integer> getNewOrders() {
+    public synchronized List<Integer> getNewOrders() {
+        return getOrderIDs(State.NEW);
+    }
+
+    /**
+     * Returns a list of IDs for all deleted orders that are uncommitted. Used for SPFEAFacade.getAllOrders()
+     *
+     * @return a list of IDs for deleted orders
+     */
+    public synchronized List<Integer> getDeletedOrders() {
+        return getOrderIDs(State.DELETED);
+    }
+
+    /**
+     * Returns every new or dirty order that is uncommitted. Used for SPFEAFacade.getAllOrderSummaries()
+     *
+     * @return the new and dirty orders
+     */
+    public synchronized List<Order> getChangedOrders() {
+        ArrayList<Order> orders = new ArrayList<>();
+        for (Entry entry : identityMap.values()) {
+            if (entry.state == State.NEW || entry.state == State.DIRTY) {
+                orders.add(entry.order);
+            }
+        }
+        return orders;
+    }
+
+    private List<Integer> getOrderIDs(State state) {
         ArrayList<Integer> orders = new ArrayList<>();
-        for (Order order : objectState.keySet()) {
-            if (objectState.get(order).equals("new")) {
-                orders.add(order.getOrderID());
+        for (Map.Entry<Integer, Entry> tracked : identityMap.entrySet()) {
+            if (tracked.getValue().state == state) {
+                orders.add(tracked.getKey());
             }
         }
         return orders;
     }
-}
\ No newline at end of file
+}
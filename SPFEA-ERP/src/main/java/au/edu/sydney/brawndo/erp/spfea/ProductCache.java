@@ -0,0 +1,51 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductCatalog;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductDatabase;
+
+import java.util.Map;
+
+/**
+ * The ProductCache holds the product catalog shared by the whole process. A process started from a warm-start snapshot
+ * serves the catalog the snapshot restored, so its product list never asks ProductDatabase; otherwise the catalog is
+ * read from ProductDatabase once, on first use.
+ */
+public final class ProductCache {
+
+    private ProductCache() {
+    }
+
+    /**
+     * @return the catalog restored from the warm-start snapshot, null if the process started without one
+     */
+    public static ProductCatalog getRestored() {
+        return Restored.CATALOG;
+    }
+
+    /**
+     * Returns the process's catalog: the restored one if there is one, otherwise ProductDatabase's.
+     *
+     * @return the catalog
+     */
+    public static ProductCatalog getCatalog() {
+        ProductCatalog restored = getRestored();
+        return null == restored ? Loaded.CATALOG : restored;
+    }
+
+    // Read on first use, which only reads the snapshot file
+    private static final class Restored {
+        private static final ProductCatalog CATALOG = restore();
+
+        private static ProductCatalog restore() {
+            WarmStartSnapshot snapshot = WarmStartSnapshot.getStartup();
+            Map<String, Product> catalog = null == snapshot ? null : snapshot.getCatalog();
+            return null == catalog ? null : new ProductCatalog(catalog.values());
+        }
+    }
+
+    // Loaded on first use, as reading the catalog costs a copy of every product's data
+    private static final class Loaded {
+        private static final ProductCatalog CATALOG = new ProductCatalog(ProductDatabase.getTestProducts());
+    }
+}
@@ -2,10 +2,16 @@ package au.edu.sydney.brawndo.erp.spfea;
 
 import au.edu.sydney.brawndo.erp.auth.AuthModule;
 import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.FileOrderStore;
+import au.edu.sydney.brawndo.erp.database.MappedOrderStore;
+import au.edu.sydney.brawndo.erp.database.OrderCodec;
+import au.edu.sydney.brawndo.erp.database.OrderSnapshot;
 import au.edu.sydney.brawndo.erp.database.TestDatabase;
 import au.edu.sydney.brawndo.erp.ordering.Customer;
 import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
 import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.spfea.ordering.BinaryOrderCodec;
 import au.edu.sydney.brawndo.erp.spfea.ordering.OrderImpl;
 import au.edu.sydney.brawndo.erp.spfea.ordering.SubscriptionOrderImpl;
 import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.BulkDiscountStrat;
@@ -14,39 +20,91 @@ import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.FlatRa
 import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.BusinessInvoiceStrat;
 import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.CustomerInvoiceStrategy;
 import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.PersonalInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductCatalog;
 import au.edu.sydney.brawndo.erp.spfea.products.ProductDatabase;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The SPFEAFacade is one user's session: it holds the session's token, its Unit of Work and its cache of orders, so it
+ * is meant to be used by one thread at a time. Customer data lives in a CustomerDirectory, which the sessions of a
+ * SessionManager share; a facade constructed directly has a directory of its own.
+ */
 @SuppressWarnings("Duplicates")
 public class SPFEAFacade {
     private AuthToken token;
 
     private OrderUoW orderUoW;
-    private HashMap<Integer, Customer> customerCache = new HashMap<>();
+    private final OrderCommitter committer = new OrderCommitter();
+    private FlushPolicy flushPolicy = FlushPolicy.parse(System.getProperty("brawndo.uow.flush", "never"));
+    private final OrderCache orderCache = new OrderCache(Long.getLong("brawndo.cache.orderLines", 100_000));
+    private final CustomerDirectory customers;
+    private final Map<Integer, CustomerProxy> customerCache = new HashMap<>(); // this session's proxies
+    private int customerWarmUpParallelism = Integer.getInteger("brawndo.customers.warmup", 0);
+    private CustomerWarmUp customerWarmUp;
+
+    /**
+     * Constructs a standalone facade, which shares no state with other facades.
+     */
+    public SPFEAFacade() {
+        this(new CustomerDirectory());
+    }
+
+    /**
+     * Constructs a facade that shares customer data with others, as the sessions of a SessionManager do.
+     *
+     * @param customers the shared customer directory
+     */
+    SPFEAFacade(CustomerDirectory customers) {
+        this.customers = customers;
+    }
 
     /**
-     * Logs in a user with the provided username and password.
+     * Logs in a user with the provided username and password. The previous login is logged out first, as logout()
+     * does, so its uncommitted orders are committed.
      *
      * @param userName the username
      * @param password the password
      * @return true if the login is successful, false otherwise
      */
     public boolean login(String userName, String password) {
-        token = AuthModule.login(userName, password);
-        orderUoW = new OrderUoW(token);
+        endSession();
+        customerCache.clear(); // the proxies hold the previous session's token
 
-        return null != token;
+        synchronized (AuthModule.tokens) { // the database reads the token list from other threads, see TestDatabase
+            token = AuthModule.login(userName, password);
+        }
+        if (null == token) {
+            return false;
+        }
+
+        orderUoW = new OrderUoW(() -> loginCommitToken(userName, password), committer, flushPolicy);
+        orderCache.open(); // from now on every session's commits invalidate the orders they write
+        if (customerWarmUpParallelism > 0) {
+            customerWarmUp = customers.warmUp(token, customerWarmUpParallelism);
+        }
+
+        return true;
     }
 
     /**
      * Retrieves a list of all orders.
      *
-     * @return a list of order IDs that are committed to DB and awaiting commit in UoW: Excludes deleted orders in UoW
+     * @return a list of order IDs that are committed to DB, being written to DB or awaiting commit in UoW: Excludes
+     * deleted orders in UoW and orders being removed from DB
      * @throws SecurityException if not logged in
      */
     public List<Integer> getAllOrders() {
@@ -56,17 +114,60 @@ public class SPFEAFacade {
 
         TestDatabase database = TestDatabase.getInstance();
 
-        List<Order> orders = database.getOrders(token);
+        Set<Integer> result = new LinkedHashSet<>(database.getOrderIDs(token)); // IDs only, no orders are copied
 
-        List<Integer> result = new ArrayList<>();
+        result.addAll(committer.getInFlightIDs(false)); // Add any orders the committer hasn't written yet
+        result.removeAll(committer.getInFlightIDs(true));
+        result.addAll(orderUoW.getNewOrders()); // Add any un-committed orders to the orders list
+        result.removeAll(orderUoW.getDeletedOrders()); // and drop any the UoW is going to remove
 
-        for (Order order: orders) {
-            result.add(order.getOrderID());
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Retrieves a summary of every order, covering the same orders as getAllOrders. Uncommitted changes are reflected
+     * in the summaries.
+     *
+     * @return the order summaries sorted by order ID, unmodifiable
+     * @throws SecurityException if not logged in
+     */
+    public List<OrderSummary> getAllOrderSummaries() {
+        if (null == token) {
+            throw new SecurityException();
         }
 
-        result.addAll(orderUoW.getNewOrders()); // Add any un-committed orders to the orders list
+        List<OrderSummary> committed = TestDatabase.getInstance().getOrderSummaries(token);
+        List<Integer> inFlightSaves = committer.getInFlightIDs(false);
+        List<Integer> inFlightRemovals = committer.getInFlightIDs(true);
+        List<Order> uncommitted = orderUoW.getChangedOrders();
+        List<Integer> uncommittedRemovals = orderUoW.getDeletedOrders();
 
-        return result;
+        if (inFlightSaves.isEmpty() && inFlightRemovals.isEmpty() && uncommitted.isEmpty()
+                && uncommittedRemovals.isEmpty()) {
+            return committed; // nothing to overlay, so the database's list is the answer as is
+        }
+
+        Map<Integer, OrderSummary> result = new TreeMap<>();
+        for (OrderSummary summary : committed) {
+            result.put(summary.getOrderID(), summary);
+        }
+        for (Integer id : inFlightSaves) {
+            OrderCommitter.InFlight pending = committer.lookup(id);
+            if (null != pending && !pending.isDeleted()) {
+                result.put(id, OrderSummary.of(pending.getOrder()));
+            }
+        }
+        for (Integer id : inFlightRemovals) {
+            result.remove(id);
+        }
+        for (Order order : uncommitted) {
+            result.put(order.getOrderID(), OrderSummary.of(order));
+        }
+        for (Integer id : uncommittedRemovals) {
+            result.remove(id);
+        }
+
+        return Collections.unmodifiableList(new ArrayList<>(result.values()));
     }
 
     /**
@@ -97,8 +198,8 @@ public class SPFEAFacade {
 
         Order order;
 
-        // Removes the loading time for getting customer IDs from DB by checking customerCache instead
-        if (!getAllCustomerIDs().contains(customerID)) {
+        // Removes the loading time for getting customer IDs from DB by checking the customer directory instead
+        if (!customers.isCustomer(token, customerID)) {
             throw new IllegalArgumentException("Invalid customer ID");
         }
 
@@ -137,8 +238,8 @@ public class SPFEAFacade {
     }
 
     /**
-     * Retrieves Customer ID's. Creates Proxy for each Customer when first loading Customers from DB
-     * Proxy Customers are stored in customerCache for later use, thus reducing DB load times
+     * Retrieves Customer ID's. They are loaded from DB once and then kept in the customer directory, thus reducing DB
+     * load times
      *
      * @return A list of customer ID's
      * @throws SecurityException if not logged in
@@ -148,25 +249,15 @@ public class SPFEAFacade {
             throw new SecurityException();
         }
 
-        // First time loading customer IDs will create a CustomerProxy for each customer ID.
-        // After the first load of customer IDs, they can be retrieved from the customerCache key-set
-        // to prevent loading time from the database.
-        TestDatabase database = TestDatabase.getInstance();
-        if (customerCache.keySet().isEmpty()) {
-            List<Integer> customerIDs = database.getCustomerIDs(token);
-            for (Integer id : customerIDs) {
-                customerCache.put(id, new CustomerProxy(token, id));
-            }
-        }
-        return new ArrayList<>(customerCache.keySet());
+        return new ArrayList<>(customers.getCustomerIDs(token));
     }
 
     /**
      * Retrieves a customer with the specified ID.
-     * Loads Customer Proxy's into customerCache if not done yet
+     * Creates a Customer Proxy for this session the first time, which loads the customer from the directory when used
      *
      * @param id the customer ID
-     * @return the customer with the given ID
+     * @return the customer with the given ID, null if there is no such customer
      * @throws SecurityException if not logged in
      */
     public Customer getCustomer(int id) {
@@ -174,24 +265,79 @@ public class SPFEAFacade {
             throw new SecurityException();
         }
 
-        // If customers haven't been loaded yet, load them through the getAllCustomerIDs() method.
-        // Returns the customer from customerCache.
-        if (customerCache.keySet().isEmpty()) {
-            getAllCustomerIDs();
+        if (!customers.isCustomer(token, id)) {
+            return null;
         }
 
-        // If customers have been loaded we need to give each customer Proxy the new AuthToken
-        for (Customer customer : customerCache.values()) {
-            CustomerProxy customerProxy = (CustomerProxy) customer;
-            customerProxy.setToken(this.token);
+        return customerCache.computeIfAbsent(id, key -> new CustomerProxy(token, key, customers));
+    }
+
+    /**
+     * Retrieves the customers with the specified IDs, loading any that haven't been loaded yet in a single
+     * database round trip.
+     *
+     * @param ids the customer IDs
+     * @return the customers with the given IDs, in the same order; null for IDs that don't match a customer
+     * @throws SecurityException if not logged in
+     */
+    public List<Customer> getCustomers(List<Integer> ids) {
+        if (null == token) {
+            throw new SecurityException();
+        }
+
+        List<Customer> result = new ArrayList<>(ids.size());
+        List<Integer> toLoad = new ArrayList<>();
+        for (Integer id : ids) {
+            Customer customer = getCustomer(id);
+            result.add(customer);
+            if (null != customer) {
+                toLoad.add(id);
+            }
+        }
+
+        customers.getCustomers(token, toLoad); // the proxies then find their customers already in the directory
+
+        return result;
+    }
+
+    /**
+     * Finds the customers with the given value in a field, for example every customer in a suburb. The search is
+     * answered from an in-memory index, which the first search builds from a single bulk load of every customer.
+     *
+     * @param fieldName the field to search: fName, lName, suburb, state, postCode, merchandiser or businessName
+     * @param value     the value to match, ignoring case
+     * @return the IDs of the matching customers, in ascending order
+     * @throws SecurityException        if not logged in
+     * @throws IllegalArgumentException if the field can't be searched on
+     */
+    public List<Integer> findCustomers(String fieldName, String value) {
+        if (null == token) {
+            throw new SecurityException();
+        }
+
+        return customers.findCustomers(token, fieldName, value);
+    }
+
+    /**
+     * Finds the customers with the given first name, last name or full name, from the same index as
+     * findCustomers(String, String).
+     *
+     * @param name the name to match, ignoring case
+     * @return the IDs of the matching customers, in ascending order
+     * @throws SecurityException if not logged in
+     */
+    public List<Integer> findCustomersByName(String name) {
+        if (null == token) {
+            throw new SecurityException();
         }
 
-        return customerCache.get(id);
+        return customers.findCustomersByName(token, name);
     }
 
     /**
-     * Removes an order with the specified ID. Updates order as "deleted" in UoW if order is uncommitted,
-     * otherwise order is removed from DB.
+     * Removes an order with the specified ID. An order in the UoW, or still being written by the committer, is
+     * registered as "deleted" and removed on commit. A stored order is removed from the DB straight away; if this
+     * session has read it, only as long as no other session has changed it since.
      *
      * @param id the order ID
      * @return true if the order is successfully removed, false otherwise
@@ -205,9 +351,26 @@ public class SPFEAFacade {
         // To satisfy test cases
         TestDatabase database = TestDatabase.getInstance();
 
+        if (orderUoW.isDeleted(id)) {
+            return false; // already going to be removed on commit
+        }
+
         Order order = orderUoW.getOrder(id);
         if (order == null) {
-            return database.removeOrder(token, id); // we remove order from DB as it is not in UoW
+            OrderCommitter.InFlight pending = committer.lookup(id);
+            if (pending == null) {
+                long version = orderCache.getVersion(id); // the version this session last read, if it has read it
+                boolean removed = version == OrderCommitter.UNKNOWN_VERSION ? database.removeOrder(token, id)
+                        : database.removeOrder(token, id, version); // we remove order from DB as it is not in UoW
+                OrderCache.invalidateOpen(Collections.singletonList(id));
+                return removed;
+            }
+            if (pending.isDeleted()) {
+                return false; // already being removed
+            }
+            // The order is still being saved, so the removal is queued behind the save rather than racing it
+            orderUoW.registerDeleted(id, pending.getVersion());
+            return true;
         } else {
             orderUoW.registerDeleted(order); // if order is in UoW we register it as deleted
             return true;
@@ -225,6 +388,12 @@ public class SPFEAFacade {
             throw new SecurityException();
         }
 
+        // A process restarted from a warm-start snapshot serves the catalog it restored, without asking the database
+        ProductCatalog restored = ProductCache.getRestored();
+        if (null != restored) {
+            return new ArrayList<>(restored.getProducts().values());
+        }
+
         // Returns a new ArrayList containing all the products from ProductDatabase.
         return new ArrayList<>(ProductDatabase.getTestProducts());
     }
@@ -291,12 +460,141 @@ public class SPFEAFacade {
     }
 
     /**
-     * Logs out the current user, committing any uncommitted orders.
+     * Logs out the current user, invalidating their token, and commits any uncommitted orders. The commit is written
+     * in the background under a token of its own, so the session ends immediately.
      */
     public void logout() {
-        orderUoW.commit();
-        AuthModule.logout(token);
-        token = null;
+        endSession();
+    }
+
+    /**
+     * Logs out the current user as logout() does.
+     *
+     * @return a future completed once the session's last commit has landed
+     */
+    CompletableFuture<CommitResult> endSession() {
+        if (null != token) {
+            synchronized (AuthModule.tokens) {
+                AuthModule.logout(token);
+            }
+            token = null;
+        }
+
+        orderCache.close();
+        return closeOrderUoW();
+    }
+
+    /**
+     * Logs in a token for one commit to be written with, which the committer logs out once it has written the commit.
+     *
+     * @param userName the username the session logged in with
+     * @param password the password the session logged in with
+     * @return the token, null if the login fails
+     */
+    private static AuthToken loginCommitToken(String userName, String password) {
+        synchronized (AuthModule.tokens) {
+            return AuthModule.login(userName, password);
+        }
+    }
+
+    /**
+     * Stops the session's UoW committing in the background and commits what is left in it, so it can be dropped.
+     *
+     * @return a future completed once the commit has landed
+     */
+    private CompletableFuture<CommitResult> closeOrderUoW() {
+        if (null == orderUoW) {
+            return CompletableFuture.completedFuture(new CommitResult(0, 0)); // never logged in
+        }
+
+        OrderUoW closing = orderUoW;
+        orderUoW = null;
+        closing.stopAutoFlush(); // otherwise the shared scheduler keeps checking it for as long as the process runs
+        return closing.commit().whenComplete((result, error) -> {
+            if (null != error) {
+                System.err.println("Failed to save orders: " + error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Turns loading every customer in the background at login on or off. Takes effect from the next login; the default
+     * comes from the brawndo.customers.warmup system property, which is off unless set.
+     *
+     * @param parallelism the most customer fetches the warm-up runs at the same time, 0 to turn it off
+     */
+    public void setCustomerWarmUp(int parallelism) {
+        this.customerWarmUpParallelism = parallelism;
+    }
+
+    /**
+     * Returns the customer warm-up started at login, to report its progress. Customers viewed before it finishes wait
+     * for it rather than loading again.
+     *
+     * @return the warm-up, null if none was started
+     */
+    public CustomerWarmUp getCustomerWarmUp() {
+        return customerWarmUp;
+    }
+
+    /**
+     * Sets when sessions commit their changes without waiting for logout. Takes effect from the next login; the default
+     * comes from the brawndo.uow.flush system property, see FlushPolicy.parse(String).
+     *
+     * @param flushPolicy the policy
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * Waits for every background commit to finish writing to the database, then closes the order store. Call before
+     * the process exits. Writes a warm-start snapshot if the brawndo.snapshot system property names one.
+     */
+    public void shutdown() {
+        awaitCommits();
+        WarmStartSnapshot.saveIfConfigured(customers);
+        TestDatabase.getInstance().getOrderStore().close();
+    }
+
+    /**
+     * Waits for every background commit of this facade to finish writing to the database.
+     */
+    void awaitCommits() {
+        committer.shutdown();
+    }
+
+    /**
+     * Keeps orders in a durable log file instead of in memory, restoring any orders already in the log. Call at
+     * startup, before any orders are created.
+     *
+     * @param path the order log file, created if it doesn't exist
+     * @throws UncheckedIOException if the log can't be opened
+     */
+    public void openOrderLog(Path path) {
+        try {
+            OrderCodec codec = new BinaryOrderCodec(ProductCache.getCatalog());
+            TestDatabase.getInstance().setOrderStore(new FileOrderStore(path, codec));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Keeps orders in a memory-mapped order file instead of in memory, restoring any orders already in the file. Only
+     * the file offsets of orders are held on the heap, so this suits far more orders than fit in memory as objects.
+     * Call at startup, before any orders are created.
+     *
+     * @param path the order file, created if it doesn't exist
+     * @throws UncheckedIOException if the file can't be opened
+     */
+    public void openMappedOrderFile(Path path) {
+        try {
+            OrderCodec codec = new BinaryOrderCodec(ProductCache.getCatalog());
+            TestDatabase.getInstance().setOrderStore(new MappedOrderStore(path, codec));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -333,21 +631,29 @@ public class SPFEAFacade {
             throw new SecurityException();
         }
 
-        Order order = orderUoW.getOrder(orderID); //if order is in UoW cache order will != null
+        synchronized (orderUoW) { // an auto-flush must not hand the order to the committer while it is being edited
+            Order order = orderUoW.getOrder(orderID); //if order is in UoW cache order will != null
+            long version = OrderCommitter.UNKNOWN_VERSION; // an order already in the UoW keeps the version it was based on
+
+            //if order is not in UoW cache, it must have been committed, so we get it from the committer or DB
+            if (null == order && !orderUoW.isDeleted(orderID)) {
+                orderCache.invalidate(orderID); // the UoW now serves the order until its change has been written
+                version = findCommittedVersion(orderID); // before the order, so the version is never newer than it
+                order = readCommittedOrder(orderID); // not cached, as a cached order may be older than the version
+                if (order instanceof OrderSnapshot || (null != order && null != committer.lookup(orderID))) {
+                    order = order.copy(); // stored snapshots are immutable and the committer may still be writing its
+                                          // order, so either way the edit goes to a copy that the UoW then owns
+                }
+            }
 
-        //if order is not in UoW cache, it must have been committed to DB, so we get it from there
-        if (null == order) {
-            order = TestDatabase.getInstance().getOrder(token, orderID);
-            orderUoW.registerDirty(order); //need to register order as dirty in UoW as we are updating the Order
-        }
+            if (null == order) { //left this from scafold.
+                System.out.println("got here");
+                return;
+            }
 
-        if (null == order) { //left this from scafold.
-            System.out.println("got here");
-            return;
+            order.setProduct(product, qty);
+            orderUoW.registerLineChange(order, product, qty, version); // a stored order is then committed as just its changed lines
         }
-
-        order.setProduct(product, qty);
-
     }
 
     /**
@@ -408,7 +714,11 @@ public class SPFEAFacade {
 
     /**
      * Retrives order of specified ID. First checks if order exists in UoW cache and returns order if true,
-     * otherwise order is retrieved from DB.
+     * then checks for a commit still being written, otherwise order is retrieved from DB.
+     *
+     * An order that has been committed is shared with the DB, so it is returned wrapped: reading it costs nothing extra,
+     * and the first setProduct or finalise changes a copy of its own instead of the shared order. Such changes are not
+     * saved; change orders through the facade, e.g. orderLineSet.
      *
      * @param orderID the order ID
      * @return order of the specified ID, null if order doesn't exist
@@ -419,13 +729,80 @@ public class SPFEAFacade {
             throw new SecurityException();
         }
 
+        if (orderUoW.isDeleted(orderID)) {
+            return null; // the committer or DB may still hold it, but it's gone as far as this session is concerned
+        }
+
         Order order = orderUoW.getOrder(orderID);
 
         if (order == null) {
-            order = TestDatabase.getInstance().getOrder(token, orderID);
+            order = CopyOnWriteOrder.of(findCommittedOrder(orderID));
+        }
+
+        return order;
+    }
+
+    /**
+     * Returns the cache of committed orders read by this facade, for its hit and miss statistics.
+     *
+     * @return the order cache
+     */
+    public OrderCache getOrderCache() {
+        return orderCache;
+    }
+
+    /**
+     * Retrieves an order that has left the UoW, from the order cache if it is there. Cached orders are invalidated as
+     * soon as any session writes them, so a hit doesn't need to ask the database.
+     *
+     * @param orderID the order ID
+     * @return the committed order, null if it doesn't exist or is being removed
+     */
+    private Order findCommittedOrder(int orderID) {
+        if (null != committer.lookup(orderID)) {
+            return readCommittedOrder(orderID);
         }
 
+        Order order = orderCache.get(orderID);
+        if (null == order) {
+            long generation = orderCache.getGeneration(); // a write landing during the read then stops it being cached
+            long version = TestDatabase.getInstance().getOrderVersion(token, orderID); // before the order, see TestDatabase
+            order = readCommittedOrder(orderID);
+            orderCache.put(order, version, generation);
+        }
         return order;
     }
 
+    /**
+     * Retrieves an order that has left the UoW. An order the committer hasn't finished writing is served from the
+     * committer, as the DB doesn't have the change yet.
+     *
+     * @param orderID the order ID
+     * @return the committed order, null if it doesn't exist or is being removed
+     */
+    private Order readCommittedOrder(int orderID) {
+        OrderCommitter.InFlight pending = committer.lookup(orderID);
+        if (null != pending) {
+            return pending.getOrder();
+        }
+
+        return TestDatabase.getInstance().getOrder(token, orderID);
+    }
+
+    /**
+     * Retrieves the version of an order that has left the UoW. An order the committer hasn't finished writing will have
+     * the version its write produces, which also stops the session's edits conflicting with its own earlier commit.
+     *
+     * @param orderID the order ID
+     * @return the version of the committed order
+     */
+    private long findCommittedVersion(int orderID) {
+        OrderCommitter.InFlight pending = committer.lookup(orderID);
+        if (null != pending && pending.getVersion() != OrderCommitter.UNKNOWN_VERSION) {
+            return pending.getVersion();
+        }
+
+        return TestDatabase.getInstance().getOrderVersion(token, orderID);
+    }
+
 }
@@ -0,0 +1,99 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The SessionManager lets one process serve many users at once. Each login gets a lightweight session, an SPFEAFacade
+ * with its own token, Unit of Work and committer, while customer data is loaded once into a CustomerDirectory shared
+ * by every session. Products are read-only and shared already.
+ *
+ * The manager is safe to use from multiple threads, and each session can be driven by its own thread. Sessions spend
+ * nearly all their time waiting on the database, so plenty of them fit in a modest thread pool.
+ */
+public class SessionManager {
+    private final CustomerDirectory customers = new CustomerDirectory();
+    private final Set<SPFEAFacade> sessions = ConcurrentHashMap.newKeySet();
+    private final Set<SPFEAFacade> endedSessions = ConcurrentHashMap.newKeySet(); // still committing
+    private volatile FlushPolicy flushPolicy = FlushPolicy.parse(System.getProperty("brawndo.uow.flush", "never"));
+
+    /**
+     * Logs in a user and starts a session for them.
+     *
+     * @param userName the username
+     * @param password the password
+     * @return the user's session, null if the login failed
+     */
+    public SPFEAFacade login(String userName, String password) {
+        SPFEAFacade session = new SPFEAFacade(customers);
+        session.setFlushPolicy(flushPolicy);
+        if (!session.login(userName, password)) {
+            return null;
+        }
+
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Logs out a session, committing its uncommitted orders in the background. Has no effect on a session that has
+     * already been logged out through the manager.
+     *
+     * @param session the session
+     * @return a future completed once the session's last commit has landed
+     */
+    public CompletableFuture<CommitResult> logout(SPFEAFacade session) {
+        if (!sessions.remove(session)) {
+            return CompletableFuture.completedFuture(new CommitResult(0, 0));
+        }
+
+        endedSessions.add(session);
+        return session.endSession().whenComplete((result, error) -> endedSessions.remove(session));
+    }
+
+    /**
+     * @return the number of sessions logged in
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Sets when sessions commit their changes without waiting for logout. Takes effect from the next login.
+     *
+     * @param flushPolicy the policy
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * @return the customer data shared by the sessions
+     */
+    public CustomerDirectory getCustomerDirectory() {
+        return customers;
+    }
+
+    /**
+     * Logs out every session, waits for all of their commits to finish writing to the database, then closes the
+     * order store. Call before the process exits. Writes a warm-start snapshot if the brawndo.snapshot system
+     * property names one.
+     */
+    public void shutdown() {
+        for (SPFEAFacade session : new ArrayList<>(sessions)) {
+            logout(session);
+        }
+
+        List<SPFEAFacade> committing = new ArrayList<>(endedSessions);
+        for (SPFEAFacade session : committing) {
+            session.awaitCommits();
+        }
+        WarmStartSnapshot.saveIfConfigured(customers);
+        TestDatabase.getInstance().getOrderStore().close();
+    }
+}
@@ -0,0 +1,409 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductImpl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A WarmStartSnapshot is a file of the customer data and product catalog a process had loaded when it shut down, so
+ * the next process can start with them instead of loading customers from the database and regenerating the catalog.
+ *
+ * The file is written at shutdown and read at startup when the brawndo.snapshot system property names it. It is
+ * memory-mapped and checked against its header, version and checksum before anything is taken from it; a missing,
+ * damaged or out of date file is ignored and the process starts cold. Customers are only restored while they would
+ * still be live in the CustomerCache. A restored catalog is served by ProductCache in place of ProductDatabase's.
+ *
+ * File layout: a header (magic, version, written at, body length, body CRC-32) followed by the body: the customer IDs
+ * (-1 if they weren't loaded), the customer field groups with when each was loaded, the catalog's distinct data arrays,
+ * then its products with their catalog keys, referring to the arrays by index. The product data arrays are shared between products through
+ * flyweights, so each distinct array is written once.
+ */
+public class WarmStartSnapshot {
+    private static final int MAGIC = 0x42525753; // "BRWS"
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 28;
+
+    private static final byte ABSENT = 0;
+    private static final byte NULL = 1;
+    private static final byte PRESENT = 2;
+
+    private static Path startupPath; // guarded by the class
+    private static WarmStartSnapshot startup; // guarded by the class, read at most once
+
+    private final long writtenAt; // System.currentTimeMillis()
+    private final List<Integer> customerIDs;
+    private final List<CustomerFields> customerFields;
+    private final Map<String, Product> catalog;
+
+    /**
+     * One field group of a customer, as cached when the snapshot was taken.
+     */
+    public static class CustomerFields {
+        private final CustomerRecord fields;
+        private final CustomerFieldGroup group;
+        private final long loadedAt; // System.currentTimeMillis()
+
+        /**
+         * Constructs a CustomerFields.
+         *
+         * @param fields   a record holding the group's fields
+         * @param group    the field group
+         * @param loadedAt when the group was loaded from the database, in milliseconds since the epoch
+         */
+        public CustomerFields(CustomerRecord fields, CustomerFieldGroup group, long loadedAt) {
+            this.fields = fields;
+            this.group = group;
+            this.loadedAt = loadedAt;
+        }
+
+        public CustomerRecord getFields() {
+            return fields;
+        }
+
+        public CustomerFieldGroup getGroup() {
+            return group;
+        }
+
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+    }
+
+    /**
+     * Constructs a WarmStartSnapshot.
+     *
+     * @param customerIDs    the IDs of every customer, null if they weren't loaded
+     * @param customerFields the cached customer field groups
+     * @param catalog        the product catalog, keyed by catalog key; every product carries its key
+     */
+    public WarmStartSnapshot(List<Integer> customerIDs, List<CustomerFields> customerFields,
+                             Map<String, Product> catalog) {
+        this(System.currentTimeMillis(), customerIDs, customerFields, catalog);
+    }
+
+    private WarmStartSnapshot(long writtenAt, List<Integer> customerIDs, List<CustomerFields> customerFields,
+                              Map<String, Product> catalog) {
+        this.writtenAt = writtenAt;
+        this.customerIDs = customerIDs;
+        this.customerFields = customerFields;
+        this.catalog = catalog;
+    }
+
+    /**
+     * Returns the snapshot named by the brawndo.snapshot system property, reading it the first time.
+     *
+     * @return the snapshot, null if the property isn't set or the file is missing or invalid
+     */
+    public static synchronized WarmStartSnapshot getStartup() {
+        Path path = getConfiguredPath();
+        if (null == path || path.equals(startupPath)) {
+            return startup;
+        }
+
+        startupPath = path;
+        startup = null;
+        if (Files.exists(path)) {
+            try {
+                startup = read(path);
+            } catch (IOException e) {
+                System.err.println("Ignoring warm-start snapshot " + path + ": " + e.getMessage());
+            }
+        }
+        return startup;
+    }
+
+    /**
+     * Writes a snapshot of the given directory's customers and the product catalog to the file named by the
+     * brawndo.snapshot system property, if it is set. Failures are reported rather than thrown, as a missing snapshot
+     * only costs the next process a cold start.
+     *
+     * @param customers the customer directory
+     */
+    public static void saveIfConfigured(CustomerDirectory customers) {
+        Path path = getConfiguredPath();
+        if (null == path) {
+            return;
+        }
+
+        try {
+            new WarmStartSnapshot(customers.getLoadedCustomerIDs(), customers.getCache().getCachedFields(),
+                    ProductCache.getCatalog().getProducts()).write(path);
+        } catch (IOException e) {
+            System.err.println("Failed to write warm-start snapshot " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static Path getConfiguredPath() {
+        String property = System.getProperty("brawndo.snapshot");
+        return null == property || property.isEmpty() ? null : Paths.get(property);
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getWrittenAt() {
+        return writtenAt;
+    }
+
+    /**
+     * @return the IDs of every customer, null if they weren't loaded
+     */
+    public List<Integer> getCustomerIDs() {
+        return customerIDs;
+    }
+
+    public List<CustomerFields> getCustomerFields() {
+        return customerFields;
+    }
+
+    /**
+     * @return the snapshot's product catalog keyed by catalog key, null if it has none
+     */
+    public Map<String, Product> getCatalog() {
+        return null == catalog || catalog.isEmpty() ? null : catalog;
+    }
+
+    /**
+     * Writes the snapshot, replacing the file atomically so a crash mid-write leaves the previous snapshot in place.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path path) throws IOException {
+        Path written = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        long bodyLength;
+        try (FileChannel channel = FileChannel.open(written, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_LENGTH);
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 1 << 16), crc);
+            DataOutputStream out = new DataOutputStream(checked);
+            writeBody(out);
+            out.flush();
+            bodyLength = channel.size() - HEADER_LENGTH;
+            if (bodyLength > Integer.MAX_VALUE - HEADER_LENGTH) {
+                throw new IOException("snapshot too large to map");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).putLong(writtenAt).putLong(bodyLength).putInt((int) crc.getValue());
+            header.flip();
+            channel.write(header, 0); // last, so a file that was never finished fails its checksum
+            channel.force(true);
+        }
+        Files.move(written, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads and validates a snapshot file.
+     *
+     * @param path the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file can't be read or isn't a valid snapshot
+     */
+    public static WarmStartSnapshot read(Path path) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("not a snapshot file");
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (MAGIC != mapping.getInt(0)) {
+            throw new IOException("not a snapshot file");
+        }
+        if (VERSION != mapping.getInt(4)) {
+            throw new IOException("written by an incompatible version");
+        }
+        long writtenAt = mapping.getLong(8);
+        long bodyLength = mapping.getLong(16);
+        if (bodyLength != mapping.capacity() - HEADER_LENGTH) {
+            throw new IOException("truncated");
+        }
+
+        ByteBuffer body = mapping.position(HEADER_LENGTH).slice();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != mapping.getInt(24)) {
+            throw new IOException("checksum mismatch");
+        }
+
+        try {
+            return readBody(writtenAt, body);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException
+                 | IllegalArgumentException e) {
+            throw new IOException("malformed", e);
+        }
+    }
+
+    private void writeBody(DataOutputStream out) throws IOException {
+        if (null == customerIDs) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(customerIDs.size());
+            for (Integer id : customerIDs) {
+                out.writeInt(id);
+            }
+        }
+
+        out.writeInt(customerFields.size());
+        for (CustomerFields entry : customerFields) {
+            out.writeInt(entry.fields.getId());
+            out.writeByte(entry.group.ordinal());
+            out.writeLong(entry.loadedAt);
+            for (String fieldName : entry.group.getFieldNames()) {
+                if (!entry.fields.hasField(fieldName)) {
+                    out.writeByte(ABSENT);
+                } else if (null == entry.fields.getField(fieldName)) {
+                    out.writeByte(NULL);
+                } else {
+                    out.writeByte(PRESENT);
+                    writeString(out, entry.fields.getField(fieldName));
+                }
+            }
+        }
+
+        Map<double[], Integer> arrays = new IdentityHashMap<>(); // products share arrays through flyweights
+        List<double[]> distinct = new ArrayList<>();
+        for (Product product : catalog.values()) {
+            for (double[] data : getData(product)) {
+                if (null != data && !arrays.containsKey(data)) {
+                    arrays.put(data, distinct.size());
+                    distinct.add(data);
+                }
+            }
+        }
+
+        out.writeInt(distinct.size());
+        for (double[] data : distinct) {
+            out.writeInt(data.length);
+            writeDoubles(out, data);
+        }
+
+        out.writeInt(catalog.size());
+        for (Map.Entry<String, Product> entry : catalog.entrySet()) {
+            Product product = entry.getValue();
+            writeString(out, entry.getKey());
+            out.writeInt(product.getKey().getId());
+            writeString(out, product.getProductName());
+            out.writeDouble(product.getCost());
+            for (double[] data : getData(product)) {
+                out.writeInt(null == data ? -1 : arrays.get(data));
+            }
+        }
+    }
+
+    private static WarmStartSnapshot readBody(long writtenAt, ByteBuffer in) {
+        int idCount = in.getInt();
+        List<Integer> customerIDs = null;
+        if (idCount >= 0) {
+            customerIDs = new ArrayList<>(idCount);
+            for (int i = 0; i < idCount; i++) {
+                customerIDs.add(in.getInt());
+            }
+        }
+
+        int fieldsCount = in.getInt();
+        List<CustomerFields> customerFields = new ArrayList<>(fieldsCount);
+        CustomerFieldGroup[] groups = CustomerFieldGroup.values();
+        for (int i = 0; i < fieldsCount; i++) {
+            int id = in.getInt();
+            CustomerFieldGroup group = groups[in.get()];
+            long loadedAt = in.getLong();
+            Map<String, String> fields = new HashMap<>();
+            for (String fieldName : group.getFieldNames()) {
+                byte state = in.get();
+                if (NULL == state) {
+                    fields.put(fieldName, null);
+                } else if (PRESENT == state) {
+                    fields.put(fieldName, readString(in));
+                }
+            }
+            customerFields.add(new CustomerFields(new CustomerRecord(id, fields), group, loadedAt));
+        }
+
+        int arrayCount = in.getInt();
+        List<double[]> arrays = new ArrayList<>(arrayCount);
+        for (int i = 0; i < arrayCount; i++) {
+            double[] data = new double[in.getInt()];
+            in.asDoubleBuffer().get(data); // straight out of the mapping
+            in.position(in.position() + data.length * Double.BYTES);
+            arrays.add(data);
+        }
+
+        int productCount = in.getInt();
+        Map<String, Product> catalog = new LinkedHashMap<>();
+        for (int i = 0; i < productCount; i++) {
+            String key = readString(in);
+            int id = in.getInt();
+            String name = readString(in);
+            double cost = in.getDouble();
+            double[][] data = new double[5][];
+            for (int j = 0; j < data.length; j++) {
+                int index = in.getInt();
+                data[j] = index < 0 ? null : arrays.get(index);
+            }
+            catalog.put(key, new ProductImpl(new ProductKey(id, key), name, cost,
+                    data[0], data[1], data[2], data[3], data[4]));
+        }
+
+        return new WarmStartSnapshot(writtenAt, customerIDs, Collections.unmodifiableList(customerFields),
+                Collections.unmodifiableMap(catalog));
+    }
+
+    private static double[][] getData(Product product) {
+        return new double[][]{product.getManufacturingData(), product.getRecipeData(), product.getMarketingData(),
+                product.getSafetyData(), product.getLicensingData()};
+    }
+
+    private static void writeDoubles(OutputStream out, double[] data) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        for (int from = 0; from < data.length; ) {
+            int count = Math.min(data.length - from, chunk.capacity() / Double.BYTES);
+            chunk.clear();
+            chunk.asDoubleBuffer().put(data, from, count);
+            out.write(chunk.array(), 0, count * Double.BYTES);
+            from += count;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
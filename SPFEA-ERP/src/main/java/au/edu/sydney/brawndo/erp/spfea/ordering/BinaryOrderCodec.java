@@ -0,0 +1,190 @@
+package au.edu.sydney.brawndo.erp.spfea.ordering;
+
+import au.edu.sydney.brawndo.erp.database.OrderCodec;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.BulkDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.DiscountStrategy;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.FlatRateDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.BusinessInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.CustomerInvoiceStrategy;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.PersonalInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductCatalog;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BinaryOrderCodec stores OrderImpl and SubscriptionOrderImpl orders for persistent order stores. Strategies are stored
+ * as a type code plus their parameters, and order lines refer to products by catalog key rather than embedding the
+ * product data.
+ */
+public class BinaryOrderCodec implements OrderCodec {
+
+    static final byte ORDER = 1;
+    static final byte SUBSCRIPTION_ORDER = 2;
+    static final byte FLAT_RATE_DISCOUNT = 1;
+    static final byte BULK_DISCOUNT = 2;
+    static final byte PERSONAL_INVOICE = 1;
+    static final byte BUSINESS_INVOICE = 2;
+
+    private final ProductCatalog catalog;
+
+    /**
+     * Constructs a BinaryOrderCodec for orders of the given catalog's products.
+     *
+     * @param catalog the catalog that order lines refer to products in
+     */
+    public BinaryOrderCodec(ProductCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public void write(Order order, DataOutput out) throws IOException {
+        DiscountStrategy discountStrat;
+        CustomerInvoiceStrategy customerType;
+        boolean finalised;
+
+        if (order instanceof SubscriptionOrderImpl) {
+            SubscriptionOrderImpl subscription = (SubscriptionOrderImpl) order;
+            out.writeByte(SUBSCRIPTION_ORDER);
+            discountStrat = subscription.getDiscountStrategy();
+            customerType = subscription.getInvoiceStrategy();
+            finalised = subscription.isFinalised();
+        } else if (order instanceof OrderImpl) {
+            OrderImpl regular = (OrderImpl) order;
+            out.writeByte(ORDER);
+            discountStrat = regular.getDiscountStrategy();
+            customerType = regular.getInvoiceStrategy();
+            finalised = regular.isFinalised();
+        } else {
+            throw new IllegalArgumentException("Unsupported order type " + order.getClass().getName());
+        }
+
+        out.writeInt(order.getOrderID());
+        out.writeInt(order.getCustomer());
+        out.writeLong(order.getOrderDate().toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(order.getOrderDate().getNano());
+        out.writeBoolean(finalised);
+
+        if (discountStrat instanceof BulkDiscountStrat) {
+            BulkDiscountStrat bulk = (BulkDiscountStrat) discountStrat;
+            out.writeByte(BULK_DISCOUNT);
+            out.writeDouble(bulk.getDiscountRate());
+            out.writeInt(bulk.getDiscountThreshold());
+        } else if (discountStrat instanceof FlatRateDiscountStrat) {
+            out.writeByte(FLAT_RATE_DISCOUNT);
+            out.writeDouble(((FlatRateDiscountStrat) discountStrat).getDiscountRate());
+        } else {
+            throw new IllegalArgumentException("Unsupported discount strategy " + discountStrat);
+        }
+
+        if (customerType instanceof BusinessInvoiceStrat) {
+            out.writeByte(BUSINESS_INVOICE);
+        } else if (customerType instanceof PersonalInvoiceStrat) {
+            out.writeByte(PERSONAL_INVOICE);
+        } else {
+            throw new IllegalArgumentException("Unsupported invoice strategy " + customerType);
+        }
+
+        if (order instanceof SubscriptionOrderImpl) {
+            out.writeInt(((SubscriptionOrderImpl) order).numberOfShipmentsOrdered());
+        }
+
+        out.writeInt(order.getAllProducts().size());
+        for (Product product : order.getAllProducts()) {
+            writeLine(product, order.getProductQty(product), out);
+        }
+    }
+
+    @Override
+    public Order read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        int id = in.readInt();
+        int customerID = in.readInt();
+        LocalDateTime date = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        boolean finalised = in.readBoolean();
+
+        DiscountStrategy discountStrat;
+        byte discountType = in.readByte();
+        if (discountType == BULK_DISCOUNT) {
+            double rate = in.readDouble();
+            discountStrat = new BulkDiscountStrat(rate, in.readInt());
+        } else if (discountType == FLAT_RATE_DISCOUNT) {
+            discountStrat = new FlatRateDiscountStrat(in.readDouble());
+        } else {
+            throw new IOException("Unknown discount strategy code " + discountType);
+        }
+
+        CustomerInvoiceStrategy customerType;
+        byte invoiceType = in.readByte();
+        if (invoiceType == BUSINESS_INVOICE) {
+            customerType = new BusinessInvoiceStrat();
+        } else if (invoiceType == PERSONAL_INVOICE) {
+            customerType = new PersonalInvoiceStrat();
+        } else {
+            throw new IOException("Unknown invoice strategy code " + invoiceType);
+        }
+
+        Order order;
+        if (type == SUBSCRIPTION_ORDER) {
+            order = new SubscriptionOrderImpl(id, customerID, date, discountStrat, customerType, in.readInt());
+        } else if (type == ORDER) {
+            order = new OrderImpl(id, customerID, date, discountStrat, customerType);
+        } else {
+            throw new IOException("Unknown order type code " + type);
+        }
+
+        int lineCount = in.readInt();
+        for (int i = 0; i < lineCount; i++) {
+            order.setProduct(readProduct(in), in.readInt());
+        }
+
+        if (finalised) {
+            order.finalise(); // after the lines, since a finalised order rejects changes
+        }
+
+        return order;
+    }
+
+    @Override
+    public void writeLines(Map<Product, Integer> lines, DataOutput out) throws IOException {
+        out.writeInt(lines.size());
+        for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+            writeLine(line.getKey(), line.getValue(), out);
+        }
+    }
+
+    @Override
+    public Map<Product, Integer> readLines(DataInput in) throws IOException {
+        int lineCount = in.readInt();
+        Map<Product, Integer> lines = new LinkedHashMap<>();
+        for (int i = 0; i < lineCount; i++) {
+            lines.put(readProduct(in), in.readInt());
+        }
+        return lines;
+    }
+
+    private void writeLine(Product product, int qty, DataOutput out) throws IOException {
+        String key = catalog.getProductKey(product);
+        if (null == key) {
+            throw new IllegalArgumentException("Product " + product + " is not in the catalog");
+        }
+        out.writeUTF(key);
+        out.writeInt(qty);
+    }
+
+    private Product readProduct(DataInput in) throws IOException {
+        String key = in.readUTF();
+        Product product = catalog.getProduct(key);
+        if (null == product) {
+            throw new IOException("Stored order line refers to unknown product " + key);
+        }
+        return product;
+    }
+}
@@ -14,7 +14,7 @@ import java.util.*;
  */
 public class OrderImpl implements Order {
 
-    private Map<Product, Integer> products = new HashMap<>(); // Map of products and their quantities
+    private OrderLines lines = new OrderLines(); // The products in the order and their quantities
     private final int id; // Order ID
     private LocalDateTime date; // Order date and time
     private int customerID; // ID of the customer associated with the order
@@ -47,7 +47,7 @@ public class OrderImpl implements Order {
 
     @Override
     public double getTotalCost() {
-        double cost = discountStrat.calculateCost(this, products); // Calculate the total cost of the order using specified Discount Strategy
+        double cost = discountStrat.calculateCost(this, lines); // Calculate the total cost of the order using specified Discount Strategy
         return cost;
     }
 
@@ -63,34 +63,18 @@ public class OrderImpl implements Order {
         }
 
         // We can't rely on like products having the same object identity since they get
-        // rebuilt over the network, so we had to check for presence and same values
-
-        for (Product contained : products.keySet()) {
-            if (contained.equals(product)) {
-                product = contained; // Update the reference to an existing product with the same values
-                break;
-            }
-        }
-
-        products.put(product, qty); // Add the product and its quantity to the order
+        // rebuilt over the network, so like products are found by their catalog key, which OrderLines does
+        lines.set(product, qty); // Add the product, or update the like one, and its quantity to the order
     }
 
     @Override
     public Set<Product> getAllProducts() {
-        return products.keySet();
+        return lines.productSet();
     }
 
     @Override
     public int getProductQty(Product product) {
-        for (Product contained : products.keySet()) {
-            if (contained.equals(product)) {
-                product = contained; // Update the reference to an existing product with the same values
-                break;
-            }
-        }
-
-        Integer result = products.get(product); // Get the quantity of the specified product
-        return null == result ? 0 : result;
+        return lines.getQuantity(product); // 0 if the order has no like product
     }
 
     @Override
@@ -110,13 +94,23 @@ public class OrderImpl implements Order {
 
     @Override
     public Order copy() {
-        Order copy = new OrderImpl(id, customerID, date, discountStrat, customerType); // Create a copy of the order
-        for (Product product : products.keySet()) {
-            copy.setProduct(product, products.get(product)); // Copy the products and their quantities to the new order
-        }
+        OrderImpl copy = new OrderImpl(id, customerID, date, discountStrat, customerType); // Create a copy of the order
+        copy.lines = lines.copy(); // Copy the products and their quantities to the new order
         return copy;
     }
 
+    DiscountStrategy getDiscountStrategy() {
+        return discountStrat;
+    }
+
+    CustomerInvoiceStrategy getInvoiceStrategy() {
+        return customerType;
+    }
+
+    boolean isFinalised() {
+        return finalised;
+    }
+
     @Override
     public String shortDesc() {
         return String.format("ID:%s $%,.2f", id, getTotalCost());
@@ -128,16 +122,16 @@ public class OrderImpl implements Order {
         double discountedCost = getTotalCost();
         StringBuilder productSB = new StringBuilder();
 
-        List<Product> keyList = new ArrayList<>(products.keySet());
+        List<Product> keyList = new ArrayList<>(lines.productSet());
         keyList.sort(Comparator.comparing(Product::getProductName).thenComparing(Product::getCost));
 
         for (Product product : keyList) {
-            double subtotal = product.getCost() * products.get(product);
+            double subtotal = product.getCost() * lines.getQuantity(product);
             fullCost += subtotal;
 
             productSB.append(String.format("\tProduct name: %s\tQty: %d\tUnit cost: $%,.2f\tSubtotal: $%,.2f\n",
                     product.getProductName(),
-                    products.get(product),
+                    lines.getQuantity(product),
                     product.getCost(),
                     subtotal));
         }
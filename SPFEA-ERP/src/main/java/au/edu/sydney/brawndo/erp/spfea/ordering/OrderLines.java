@@ -0,0 +1,251 @@
+package au.edu.sydney.brawndo.erp.spfea.ordering;
+
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * OrderLines holds the lines of an order in parallel primitive arrays: each line's catalog product ID, quantity and
+ * unit cost, alongside the product itself. Lines are found through an open-addressing table of line numbers keyed by
+ * catalog product ID, so adding or looking up a line is one probe and no line allocates an object of its own. Discount
+ * strategies walk the lines by number, which reads straight down the quantity and unit cost arrays.
+ *
+ * Products outside the catalog have no ID and are found by comparing their values, as orders always did.
+ *
+ * Lines are kept in the order they were first set, and never removed: setting a quantity of zero keeps the line.
+ */
+public class OrderLines {
+    private static final int NO_ID = -1; // for products outside the catalog
+    private static final int EMPTY = -1; // an unused slot of the table
+
+    private int[] productIDs;
+    private int[] quantities;
+    private double[] unitCosts;
+    private Product[] products;
+    private int size;
+    private int keylessCount; // lines with no catalog ID, which are only found by value
+
+    private int[] table; // line numbers by catalog ID, EMPTY where unused; its length is a power of two
+    private Set<Product> productSet;
+
+    /**
+     * Constructs an empty OrderLines.
+     */
+    public OrderLines() {
+        this(4);
+    }
+
+    private OrderLines(int capacity) {
+        productIDs = new int[capacity];
+        quantities = new int[capacity];
+        unitCosts = new double[capacity];
+        products = new Product[capacity];
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        Arrays.fill(table, EMPTY);
+    }
+
+    private OrderLines(OrderLines lines) {
+        productIDs = lines.productIDs.clone();
+        quantities = lines.quantities.clone();
+        unitCosts = lines.unitCosts.clone();
+        products = lines.products.clone();
+        size = lines.size;
+        keylessCount = lines.keylessCount;
+        table = lines.table.clone();
+    }
+
+    /**
+     * @return the number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param line the line number, from 0 to size() - 1
+     * @return the product on the line
+     */
+    public Product getProduct(int line) {
+        checkLine(line);
+        return products[line];
+    }
+
+    /**
+     * @param line the line number, from 0 to size() - 1
+     * @return the quantity on the line
+     */
+    public int getQuantity(int line) {
+        checkLine(line);
+        return quantities[line];
+    }
+
+    /**
+     * @param line the line number, from 0 to size() - 1
+     * @return the cost of one of the line's product, as it was when the line was set
+     */
+    public double getUnitCost(int line) {
+        checkLine(line);
+        return unitCosts[line];
+    }
+
+    /**
+     * Sets the quantity of a product, adding a line for it if the order has no like product. A like product keeps its
+     * line and the order keeps referring to it rather than the one passed in.
+     *
+     * @param product the product
+     * @param qty     the quantity
+     */
+    public void set(Product product, int qty) {
+        int line = find(product);
+        if (line >= 0) {
+            quantities[line] = qty;
+            return;
+        }
+
+        if (size == quantities.length) {
+            grow();
+        }
+
+        ProductKey key = product.getKey();
+        line = size++;
+        productIDs[line] = null == key ? NO_ID : key.getId();
+        quantities[line] = qty;
+        unitCosts[line] = product.getCost();
+        products[line] = product;
+        if (null == key) {
+            keylessCount++;
+        } else {
+            table[emptySlot(key.getId())] = line;
+        }
+    }
+
+    /**
+     * @param product the product
+     * @return the quantity of the like product in the order, 0 if there is none
+     */
+    public int getQuantity(Product product) {
+        int line = find(product);
+        return line < 0 ? 0 : quantities[line];
+    }
+
+    /**
+     * Finds the line of the product in the order like the given one: the one with the same catalog key, or for a
+     * product outside the catalog, the one with the same values.
+     *
+     * @param product the product
+     * @return the line number, -1 if there is none
+     */
+    public int find(Product product) {
+        ProductKey key = product.getKey();
+        if (null != key) {
+            int id = key.getId();
+            int mask = table.length - 1;
+            for (int slot = mix(id) & mask; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (productIDs[table[slot]] == id) {
+                    return table[slot];
+                }
+            }
+            if (0 == keylessCount) {
+                return -1; // every line has a catalog ID, so no other line could match
+            }
+        }
+
+        for (int line = 0; line < size; line++) {
+            if (products[line].equals(product)) {
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the products of the order, a read-only view that follows later changes
+     */
+    public Set<Product> productSet() {
+        if (null == productSet) {
+            productSet = new ProductSet();
+        }
+        return productSet;
+    }
+
+    /**
+     * @return an independent copy of the lines
+     */
+    public OrderLines copy() {
+        return new OrderLines(this);
+    }
+
+    private void checkLine(int line) {
+        if (line < 0 || line >= size) {
+            throw new IndexOutOfBoundsException("Line " + line + " of " + size);
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(4, quantities.length * 2);
+        productIDs = Arrays.copyOf(productIDs, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        unitCosts = Arrays.copyOf(unitCosts, capacity);
+        products = Arrays.copyOf(products, capacity);
+
+        table = new int[capacity * 2]; // at most half full, so probe runs stay short
+        Arrays.fill(table, EMPTY);
+        for (int line = 0; line < size; line++) {
+            if (NO_ID != productIDs[line]) {
+                table[emptySlot(productIDs[line])] = line;
+            }
+        }
+    }
+
+    private int emptySlot(int id) {
+        int mask = table.length - 1;
+        int slot = mix(id) & mask;
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Catalog IDs are dense, so they are spread before masking to keep neighbouring IDs apart
+    private static int mix(int id) {
+        int hash = id * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private class ProductSet extends AbstractSet<Product> {
+        @Override
+        public Iterator<Product> iterator() {
+            return new Iterator<Product>() {
+                private int line;
+
+                @Override
+                public boolean hasNext() {
+                    return line < size;
+                }
+
+                @Override
+                public Product next() {
+                    if (line >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return products[line++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Product && find((Product) o) >= 0;
+        }
+    }
+}
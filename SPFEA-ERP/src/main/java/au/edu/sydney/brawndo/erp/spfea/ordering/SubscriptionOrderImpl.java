@@ -14,7 +14,7 @@ import java.util.*;
  * Concrete implementation of the SubscriptionOrder interface.
  */
 public class SubscriptionOrderImpl implements SubscriptionOrder {
-    private Map<Product, Integer> products = new HashMap<>();
+    private OrderLines lines = new OrderLines();
     private final int id;
     private LocalDateTime date;
     private int customerID;
@@ -51,7 +51,7 @@ public class SubscriptionOrderImpl implements SubscriptionOrder {
 
     @Override
     public double getTotalCost() {
-        double cost = discountStrat.calculateCost(this, products);
+        double cost = discountStrat.calculateCost(this, lines);
         return cost * numShipments;
     }
 
@@ -67,33 +67,18 @@ public class SubscriptionOrderImpl implements SubscriptionOrder {
         }
 
         // We can't rely on like products having the same object identity since they get
-        // rebuilt over the network, so we had to check for presence and same values
-        for (Product contained : products.keySet()) {
-            if (contained.equals(product)) {
-                product = contained;
-                break;
-            }
-        }
-
-        products.put(product, qty);
+        // rebuilt over the network, so like products are found by their catalog key, which OrderLines does
+        lines.set(product, qty);
     }
 
     @Override
     public Set<Product> getAllProducts() {
-        return products.keySet();
+        return lines.productSet();
     }
 
     @Override
     public int getProductQty(Product product) {
-        for (Product contained : products.keySet()) {
-            if (contained.equals(product)) {
-                product = contained;
-                break;
-            }
-        }
-
-        Integer result = products.get(product);
-        return null == result ? 0 : result;
+        return lines.getQuantity(product);
     }
 
     @Override
@@ -113,13 +98,23 @@ public class SubscriptionOrderImpl implements SubscriptionOrder {
 
     @Override
     public Order copy() {
-        Order copy = new SubscriptionOrderImpl(id, customerID, date, discountStrat, customerType, numShipments);
-        for (Product product : products.keySet()) {
-            copy.setProduct(product, products.get(product));
-        }
+        SubscriptionOrderImpl copy = new SubscriptionOrderImpl(id, customerID, date, discountStrat, customerType, numShipments);
+        copy.lines = lines.copy();
         return copy;
     }
 
+    DiscountStrategy getDiscountStrategy() {
+        return discountStrat;
+    }
+
+    CustomerInvoiceStrategy getInvoiceStrategy() {
+        return customerType;
+    }
+
+    boolean isFinalised() {
+        return finalised;
+    }
+
     @Override
     public String shortDesc() {
         return String.format("ID:%s $%,.2f per shipment, $%,.2f total", id, getRecurringCost(), getRecurringCost());
@@ -131,16 +126,16 @@ public class SubscriptionOrderImpl implements SubscriptionOrder {
         double discountedCost = getRecurringCost();
         StringBuilder productSB = new StringBuilder();
 
-        List<Product> keyList = new ArrayList<>(products.keySet());
+        List<Product> keyList = new ArrayList<>(lines.productSet());
         keyList.sort(Comparator.comparing(Product::getProductName).thenComparing(Product::getCost));
 
         for (Product product : keyList) {
-            double subtotal = product.getCost() * products.get(product);
+            double subtotal = product.getCost() * lines.getQuantity(product);
             fullCost += subtotal;
 
             productSB.append(String.format("\tProduct name: %s\tQty: %d\tUnit cost: $%,.2f\tSubtotal: $%,.2f\n",
                     product.getProductName(),
-                    products.get(product),
+                    lines.getQuantity(product),
                     product.getCost(),
                     subtotal));
         }
@@ -166,7 +161,7 @@ public class SubscriptionOrderImpl implements SubscriptionOrder {
 
     @Override
     public double getRecurringCost() {
-        return discountStrat.calculateCost(this, products);
+        return discountStrat.calculateCost(this, lines);
     }
 
     @Override
@@ -1,9 +1,7 @@
 package au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats;
 
-import au.edu.sydney.brawndo.erp.ordering.Product;
 import au.edu.sydney.brawndo.erp.ordering.Order;
-
-import java.util.Map;
+import au.edu.sydney.brawndo.erp.spfea.ordering.OrderLines;
 
 /**
  * Implementation of the DiscountStrat interface that applies bulk discount to an order.
@@ -24,22 +22,30 @@ public class BulkDiscountStrat implements DiscountStrategy {
         this.discountThreshold = discountThreshold;
     }
 
+    public double getDiscountRate() {
+        return discountRate;
+    }
+
+    public int getDiscountThreshold() {
+        return discountThreshold;
+    }
+
     /**
      * Calculates the cost of the order with bulk discount applied.
      *
      * @param order    the order to calculate the cost for
-     * @param products the map of products and their quantities in the order
+     * @param lines    the lines of the order, with their quantities and unit costs
      * @return the cost of the order with bulk discount applied
      */
-    public double calculateCost(Order order, Map<Product, Integer> products) {
+    public double calculateCost(Order order, OrderLines lines) {
         double cost = 0.0;
 
-        for (Product product : products.keySet()) {
-            int count = products.get(product);
+        for (int line = 0; line < lines.size(); line++) {
+            int count = lines.getQuantity(line);
             if (count >= discountThreshold) {
-                cost += count * product.getCost() * discountRate;
+                cost += count * lines.getUnitCost(line) * discountRate;
             } else {
-                cost += count * product.getCost();
+                cost += count * lines.getUnitCost(line);
             }
         }
         return cost;
@@ -1,9 +1,7 @@
 package au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats;
 
 import au.edu.sydney.brawndo.erp.ordering.Order;
-import au.edu.sydney.brawndo.erp.ordering.Product;
-
-import java.util.Map;
+import au.edu.sydney.brawndo.erp.spfea.ordering.OrderLines;
 
 /**
  * Interface representing a discount strategy for orders.
@@ -14,8 +12,8 @@ public interface DiscountStrategy {
      * Calculates the cost of the order with the implemented discount strategy.
      *
      * @param order    the order to calculate the cost for
-     * @param products the map of products and their quantities in the order
+     * @param lines    the lines of the order, with their quantities and unit costs
      * @return the cost of the order with the implemented discount strategy applied
      */
-     double calculateCost(Order order, Map<Product, Integer> products);
+     double calculateCost(Order order, OrderLines lines);
 }
\ No newline at end of file
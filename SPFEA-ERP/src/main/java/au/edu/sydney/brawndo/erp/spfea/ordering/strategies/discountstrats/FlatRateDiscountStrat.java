@@ -1,9 +1,7 @@
 package au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats;
 
 import au.edu.sydney.brawndo.erp.ordering.Order;
-import au.edu.sydney.brawndo.erp.ordering.Product;
-
-import java.util.Map;
+import au.edu.sydney.brawndo.erp.spfea.ordering.OrderLines;
 
 /**
  * Implementation of the DiscountStrat interface that applies a flat rate discount to an order.
@@ -21,19 +19,23 @@ public class FlatRateDiscountStrat implements DiscountStrategy {
         this.discountRate = discountRate;
     }
 
+    public double getDiscountRate() {
+        return discountRate;
+    }
+
     /**
      * Calculates the cost of the order with a flat rate discount applied.
      *
      * @param order    the order to calculate the cost for
-     * @param products the map of products and their quantities in the order
+     * @param lines    the lines of the order, with their quantities and unit costs
      * @return the cost of the order with a flat rate discount applied
      */
     @Override
-    public double calculateCost(Order order, Map<Product, Integer> products) {
+    public double calculateCost(Order order, OrderLines lines) {
         double cost = 0.0;
 
-        for (Product product : products.keySet()) {
-            cost += products.get(product) * product.getCost() * discountRate;
+        for (int line = 0; line < lines.size(); line++) {
+            cost += lines.getQuantity(line) * lines.getUnitCost(line) * discountRate;
         }
         return cost;
     }
@@ -1,11 +1,14 @@
 package au.edu.sydney.brawndo.erp.spfea.products;
 
+import java.util.Arrays;
+
 /**
  * DataFlyweight represents a concrete implementation of the Flyweight interface.
  */
 public class DataFlyweight implements Flyweight {
 
     private double[] productData;
+    private final int dataHash;
 
     /**
      * Constructs a DataFlyweight object with the provided product data.
@@ -14,10 +17,16 @@ public class DataFlyweight implements Flyweight {
      */
     public DataFlyweight(double[] productData) {
         this.productData = productData;
+        this.dataHash = Arrays.hashCode(productData);
     }
 
     @Override
     public double[] getData() {
         return productData;
     }
+
+    @Override
+    public int getDataHash() {
+        return dataHash;
+    }
 }
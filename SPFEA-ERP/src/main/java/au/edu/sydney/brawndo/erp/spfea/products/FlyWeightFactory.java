@@ -7,13 +7,15 @@ import java.util.*;
  */
 public class FlyWeightFactory {
 
-    // Access to singleton instance
-    private static FlyWeightFactory instance;
-    private List<Flyweight> productDataCache;
+    // Access to singleton instance, created up front so every session gets the same one
+    private static final FlyWeightFactory instance = new FlyWeightFactory();
 
-    // Constructor creates ArrayList for data cache
+    // Flyweights bucketed by a fingerprint of their data, so only arrays that probably match are compared in full
+    private final Map<Long, List<Flyweight>> productDataCache;
+
+    // Constructor creates HashMap for data cache
     private FlyWeightFactory() {
-        productDataCache = new ArrayList<>();
+        productDataCache = new HashMap<>();
     }
 
     /**
@@ -22,15 +24,14 @@ public class FlyWeightFactory {
      * @return the singleton instance
      */
     public static FlyWeightFactory getInstance() {
-        if (instance == null) {
-            instance = new FlyWeightFactory();
-        }
         return instance;
     }
 
     /**
      * Returns a flyweight object based on the provided data array. If a flyweight object with the same data already
      * exists in the cache, that object is returned. Otherwise, a new flyweight object is created and added to the cache.
+     * Cached data is looked up by fingerprint, so finding a match costs one pass over the new array however many are
+     * cached. Synchronized on the cache, as sessions on different threads create products at the same time.
      *
      * @param data the data array
      * @return the flyweight object
@@ -41,18 +42,37 @@ public class FlyWeightFactory {
             return null;
         }
 
-        // If an existing DataFlyweight object containing matching data[] exists, return the existing flyweight object
-        for (Flyweight dataFlyweight : productDataCache) {
-            if (Arrays.equals(data, dataFlyweight.getData())) {
-                return dataFlyweight;
+        long fingerprint = fingerprint(data); // outside the lock, as it is the expensive part
+
+        synchronized (productDataCache) {
+            // If an existing DataFlyweight object containing matching data[] exists, return the existing flyweight object
+            List<Flyweight> bucket = productDataCache.computeIfAbsent(fingerprint, key -> new ArrayList<>(1));
+            for (Flyweight dataFlyweight : bucket) {
+                if (Arrays.equals(data, dataFlyweight.getData())) { // only differs on a fingerprint collision
+                    return dataFlyweight;
+                }
             }
+
+            // Otherwise, create a new DataFlyweight object storing the new unique data[] and add it to productDataCache
+            Flyweight flyweight = new DataFlyweight(data);
+            bucket.add(flyweight);
+            return flyweight;
         }
+    }
 
-        // Otherwise, create a new DataFlyweight object storing the new unique data[] and add it to productDataCache
-        Flyweight flyweight = new DataFlyweight(data);
-        productDataCache.add(flyweight);
-        return flyweight;
+    /**
+     * Computes a 64-bit fingerprint of an array's contents. Arrays that Arrays.equals considers equal always have the
+     * same fingerprint, as it works on the same bit patterns.
+     *
+     * @param data the data array
+     * @return the fingerprint
+     */
+    static long fingerprint(double[] data) {
+        long hash = 0x9E3779B97F4A7C15L ^ data.length;
+        for (double value : data) {
+            hash = (hash ^ Double.doubleToLongBits(value)) * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+        return hash;
     }
 }
-
-
@@ -11,4 +11,12 @@ public interface Flyweight {
      * @return the data as an array of doubles
      */
     double[] getData();
+
+    /**
+     * Retrieves the hash of the data, as Arrays.hashCode would compute it. The data never changes, so implementations
+     * only need to compute it once.
+     *
+     * @return the hash of the data
+     */
+    int getDataHash();
 }
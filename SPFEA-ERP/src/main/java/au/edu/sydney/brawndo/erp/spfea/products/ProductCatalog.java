@@ -0,0 +1,71 @@
+package au.edu.sydney.brawndo.erp.spfea.products;
+
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ProductCatalog identifies catalog products by their catalog key, the SKU of their ProductKey, so stored orders
+ * can refer to a product without embedding its data. Products are immutable, so the catalog hands out its own
+ * instances rather than copies.
+ */
+public class ProductCatalog {
+
+    private final Map<String, Product> products = new LinkedHashMap<>();
+
+    /**
+     * Constructs a ProductCatalog of the given products.
+     *
+     * @param products the products, each with a catalog key
+     * @throws IllegalArgumentException if a product has no catalog key
+     */
+    public ProductCatalog(Collection<Product> products) {
+        for (Product product : products) {
+            if (null == product.getKey()) {
+                throw new IllegalArgumentException("Product " + product.getProductName() + " has no catalog key");
+            }
+            this.products.put(product.getKey().getSku(), product);
+        }
+    }
+
+    /**
+     * Returns the catalog key of a product.
+     *
+     * @param product the product, either from the catalog or a copy of one
+     * @return the catalog key, null if the product isn't in the catalog
+     */
+    public String getProductKey(Product product) {
+        ProductKey key = product.getKey();
+        if (null != key && products.containsKey(key.getSku())) {
+            return key.getSku(); // every copy of a catalog product carries its key
+        }
+
+        for (Map.Entry<String, Product> entry : products.entrySet()) {
+            if (entry.getValue().equals(product)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the catalog product with the given key.
+     *
+     * @param key the catalog key
+     * @return the product, null if there is no product with that key
+     */
+    public Product getProduct(String key) {
+        return products.get(key);
+    }
+
+    /**
+     * @return the catalog products keyed by catalog key, unmodifiable
+     */
+    public Map<String, Product> getProducts() {
+        return Collections.unmodifiableMap(products);
+    }
+}
@@ -1,6 +1,7 @@
 package au.edu.sydney.brawndo.erp.spfea.products;
 
 import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
 
 import java.util.*;
 
@@ -32,8 +33,10 @@ public class ProductDatabase {
     static {
         products = new HashMap<>();
 
-        for (String name: productNameVers) {
-            products.put(name, new ProductImpl(name.substring(0, name.length()-1), getProductCost(), getProductData(), getProductData(), getProductData(), getProductData(), getProductData()));
+        // Each catalog entry's key is its position in the catalog and its name with version as the SKU
+        for (int i = 0; i < productNameVers.length; i++) {
+            String name = productNameVers[i];
+            products.put(name, new ProductImpl(new ProductKey(i, name), name.substring(0, name.length()-1), getProductCost(), getProductData(), getProductData(), getProductData(), getProductData(), getProductData()));
         }
     }
 
@@ -50,7 +53,8 @@ public class ProductDatabase {
         List<Product> result = new ArrayList<>();
 
         for (Product original: originals) {
-            result.add(new ProductImpl(original.getProductName(),
+            result.add(new ProductImpl(original.getKey(),
+                    original.getProductName(),
                     original.getCost(),
                     original.getManufacturingData().clone(),
                     original.getRecipeData().clone(),
@@ -1,6 +1,7 @@
 package au.edu.sydney.brawndo.erp.spfea.products;
 
 import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -20,6 +21,7 @@ import java.util.Objects;
  */
 public class ProductImpl implements Product {
 
+    private final ProductKey key;
     private final String name;
     private final double cost;
     private final Flyweight manufacturingData;
@@ -27,6 +29,7 @@ public class ProductImpl implements Product {
     private final Flyweight marketingData;
     private final Flyweight safetyData;
     private final Flyweight licensingData;
+    private final int hash; // computed once, as the data hashes cover every element of the arrays
 
     /**
      * Constructs a ProductImpl object.
@@ -46,9 +49,33 @@ public class ProductImpl implements Product {
                        double[] marketingData,
                        double[] safetyData,
                        double[] licensingData) {
+        this(null, name, cost, manufacturingData, recipeData, marketingData, safetyData, licensingData);
+    }
+
+    /**
+     * Constructs a ProductImpl object for a catalog product.
+     *
+     * @param key              the catalog key of the product, null if it isn't in the catalog
+     * @param name             the name of the product
+     * @param cost             the cost of the product
+     * @param manufacturingData the manufacturing data for the product
+     * @param recipeData       the recipe data for the product
+     * @param marketingData    the marketing data for the product
+     * @param safetyData       the safety data for the product
+     * @param licensingData    the licensing data for the product
+     */
+    public ProductImpl(ProductKey key,
+                       String name,
+                       double cost,
+                       double[] manufacturingData,
+                       double[] recipeData,
+                       double[] marketingData,
+                       double[] safetyData,
+                       double[] licensingData) {
         // Return singleton instance of Flyweight Factory
         FlyWeightFactory factorySingleton = FlyWeightFactory.getInstance();
 
+        this.key = key;
         this.name = name;
         this.cost = cost;
         this.manufacturingData = factorySingleton.getFlyweight(manufacturingData);
@@ -56,17 +83,24 @@ public class ProductImpl implements Product {
         this.marketingData = factorySingleton.getFlyweight(marketingData);
         this.safetyData = factorySingleton.getFlyweight(safetyData);
         this.licensingData = factorySingleton.getFlyweight(licensingData);
+
+        // The same value Arrays.hashCode over each array would give, without touching the arrays again
+        int result = Objects.hash(name, cost);
+        result = 31 * result + dataHash(this.manufacturingData);
+        result = 31 * result + dataHash(this.recipeData);
+        result = 31 * result + dataHash(this.marketingData);
+        result = 31 * result + dataHash(this.safetyData);
+        result = 31 * result + dataHash(this.licensingData);
+        this.hash = result;
+    }
+
+    private static int dataHash(Flyweight data) {
+        return null == data ? 0 : data.getDataHash();
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(name, cost);
-        result = 31 * result + Arrays.hashCode(getManufacturingData());
-        result = 31 * result + Arrays.hashCode(getRecipeData());
-        result = 31 * result + Arrays.hashCode(getMarketingData());
-        result = 31 * result + Arrays.hashCode(getSafetyData());
-        result = 31 * result + Arrays.hashCode(getLicensingData());
-        return result;
+        return hash;
     }
 
     @Override
@@ -80,6 +114,20 @@ public class ProductImpl implements Product {
             return false;
         }
 
+        // Flyweights are shared by every product with the same data, so two ProductImpls have equal data exactly when
+        // they hold the same flyweights
+        if (o instanceof ProductImpl) {
+            ProductImpl other = (ProductImpl) o;
+            return hash == other.hash &&
+                    Objects.equals(other.cost, this.cost) &&
+                    Objects.equals(other.name, this.name) &&
+                    other.manufacturingData == this.manufacturingData &&
+                    other.recipeData == this.recipeData &&
+                    other.marketingData == this.marketingData &&
+                    other.safetyData == this.safetyData &&
+                    other.licensingData == this.licensingData;
+        }
+
         Product product = (Product) o;
 
         return Objects.equals(product.getCost(), this.getCost()) &&
@@ -91,6 +139,11 @@ public class ProductImpl implements Product {
                 Arrays.equals(product.getLicensingData(), this.getLicensingData());
     }
 
+    @Override
+    public ProductKey getKey() {
+        return key;
+    }
+
     @Override
     public String getProductName() {
         return name;
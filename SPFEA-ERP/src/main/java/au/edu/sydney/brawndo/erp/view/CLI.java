@@ -1,12 +1,13 @@
 package au.edu.sydney.brawndo.erp.view;
 
 import au.edu.sydney.brawndo.erp.ordering.Customer;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
 import au.edu.sydney.brawndo.erp.ordering.Product;
 import au.edu.sydney.brawndo.erp.spfea.SPFEAFacade;
 
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 @SuppressWarnings("Duplicates")
@@ -14,7 +15,22 @@ public class CLI {
     private static SPFEAFacade model = new SPFEAFacade();
 
     public static void main(String[] args) {
+        String orderLog = System.getProperty("brawndo.orders.log"); // keep orders across restarts when set
+        String orderFile = System.getProperty("brawndo.orders.mapped"); // the same, from a memory-mapped file
+        if (null != orderLog && null != orderFile) {
+            System.err.println("brawndo.orders.log and brawndo.orders.mapped both name an order store; set only one");
+            System.exit(1);
+        }
+
+        if (null != orderLog) {
+            model.openOrderLog(Paths.get(orderLog));
+        }
+        if (null != orderFile) {
+            model.openMappedOrderFile(Paths.get(orderFile));
+        }
+
         authMenu();
+        model.shutdown();
     }
 
     private static void authMenu() {
@@ -233,12 +249,11 @@ public class CLI {
     }
 
     private static void listAllOrders() {
-        List<Integer> orders = model.getAllOrders();
-        orders.sort(Comparator.comparing(Integer::intValue));
+        List<OrderSummary> orders = model.getAllOrderSummaries(); // already sorted by order ID
 
         System.out.println("Current Orders:\n");
-        for (Integer orderID: orders) {
-            System.out.println(String.format("%s: $%,.2f", orderID, model.getOrderTotalCost(orderID)));
+        for (OrderSummary order: orders) {
+            System.out.println(String.format("%s: $%,.2f", order.getOrderID(), order.getTotalCost()));
         }
     }
 
@@ -0,0 +1,198 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.spfea.TestOrders;
+import au.edu.sydney.brawndo.erp.spfea.ordering.BinaryOrderCodec;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductCatalog;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests FileOrderStore against real log files, reopening the store to check what a restarted process would see.
+ */
+public class FileOrderStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private Path log;
+    private Product cola;
+    private Product lime;
+    private OrderCodec codec;
+    private FileOrderStore store;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        cola = TestOrders.cola();
+        lime = TestOrders.lime();
+        codec = new BinaryOrderCodec(new ProductCatalog(Arrays.asList(cola, lime)));
+
+        log = dir.resolve("orders.log");
+        store = new FileOrderStore(log, codec);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void replayRestoresSavesRemovalsAndPatches() throws IOException {
+        store.saveOrder(order(1, 3));
+        store.saveOrder(order(2, 4));
+        store.saveOrder(order(3, 5));
+        assertTrue(store.removeOrder(2));
+        store.applyChanges(Collections.emptyList(),
+                Collections.singletonList(new OrderDelta(3, Collections.singletonMap(lime, 2))),
+                Collections.emptyList());
+
+        reopen();
+
+        assertEquals(Arrays.asList(1, 3), store.getOrderIDs());
+        assertEquals(3, store.getOrder(1).getProductQty(cola));
+        assertNull(store.getOrder(2));
+        assertEquals(5, store.getOrder(3).getProductQty(cola));
+        assertEquals(2, store.getOrder(3).getProductQty(lime));
+    }
+
+    @Test
+    public void tornRecordAtTheEndIsDiscarded() throws IOException {
+        store.saveOrder(order(1, 3));
+        store.close();
+        long validLength = Files.size(log);
+
+        // A record header promising more payload than a crash left behind
+        ByteBuffer torn = ByteBuffer.allocate(8).put((byte) 1).putInt(100).put(new byte[]{1, 2, 3});
+        Files.write(log, torn.array(), StandardOpenOption.APPEND);
+
+        store = new FileOrderStore(log, codec);
+
+        assertEquals(validLength, Files.size(log));
+        assertEquals(Collections.singletonList(1), store.getOrderIDs());
+
+        store.saveOrder(order(2, 4)); // appended where the torn record was
+        reopen();
+
+        assertEquals(Arrays.asList(1, 2), store.getOrderIDs());
+    }
+
+    @Test
+    public void recordWithABadChecksumEndsReplay() throws IOException {
+        store.saveOrder(order(1, 3));
+        store.close();
+        long validLength = Files.size(log);
+        store = new FileOrderStore(log, codec);
+        store.saveOrder(order(2, 4));
+        store.close();
+
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 1] ^= 0x01; // the last byte of the second record's checksum
+        Files.write(log, bytes);
+
+        store = new FileOrderStore(log, codec);
+
+        assertEquals(validLength, Files.size(log));
+        assertEquals(Collections.singletonList(1), store.getOrderIDs());
+    }
+
+    @Test
+    public void compactionDropsSupersededRecords() throws IOException {
+        store.close();
+        long emptyLength = Files.size(log);
+        store = new FileOrderStore(log, codec, 10);
+        store.saveOrder(order(1, 1));
+        long recordLength = Files.size(log) - emptyLength;
+
+        for (int qty = 2; qty <= 40; qty++) {
+            store.saveOrder(order(1, qty));
+        }
+        store.close(); // waits for any queued compaction
+
+        assertTrue(Files.size(log) < emptyLength + 20 * recordLength,
+                "Expected a compacted log, but it is " + Files.size(log) + " bytes");
+
+        store = new FileOrderStore(log, codec);
+        assertEquals(40, store.getOrder(1).getProductQty(cola));
+        assertEquals(Collections.singletonList(1), store.getOrderIDs());
+    }
+
+    @Test
+    public void concurrentSavesAreAllDurable() throws Exception {
+        int writers = 8;
+        int ordersEach = 25;
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                int first = writer * ordersEach + 1;
+                saves.add(pool.submit(() -> {
+                    for (int id = first; id < first + ordersEach; id++) {
+                        store.saveOrder(order(id, id));
+                    }
+                }));
+            }
+            for (Future<?> save : saves) {
+                save.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        reopen();
+
+        assertEquals(writers * ordersEach, store.getOrderIDs().size());
+        for (int id = 1; id <= writers * ordersEach; id++) {
+            Order order = store.getOrder(id);
+            assertNotNull(order, "Order " + id + " was lost");
+            assertEquals(id, order.getProductQty(cola));
+        }
+    }
+
+    @Test
+    public void orderIDsAreNotReissuedAfterRestart() throws IOException {
+        int kept = store.getNextOrderID();
+        int removed = store.getNextOrderID();
+        store.saveOrder(order(kept, 1));
+        store.saveOrder(order(removed, 1));
+        store.removeOrder(removed);
+
+        reopen();
+
+        int next = store.getNextOrderID();
+        assertTrue(next > removed, "Reissued order ID " + next);
+        assertFalse(store.getOrderIDs().contains(next));
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = new FileOrderStore(log, codec);
+    }
+
+    private Order order(int id, int colaQty) {
+        return OrderSnapshot.of(TestOrders.order(id, cola, colaQty));
+    }
+}
@@ -0,0 +1,282 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.OrderSummary;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.spfea.TestOrders;
+import au.edu.sydney.brawndo.erp.spfea.ordering.BinaryOrderCodec;
+import au.edu.sydney.brawndo.erp.spfea.ordering.OrderImpl;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.FlatRateDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.PersonalInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductCatalog;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests MappedOrderStore against real files, reopening the store to check what a restarted process would see. The
+ * initial capacity is kept small so the tests also grow the mapping.
+ */
+public class MappedOrderStoreTest {
+
+    private static final int CAPACITY = 256;
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private Product cola;
+    private Product lime;
+    private CountingCodec codec;
+    private MappedOrderStore store;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        cola = TestOrders.cola();
+        lime = TestOrders.lime();
+        codec = new CountingCodec(new BinaryOrderCodec(new ProductCatalog(Arrays.asList(cola, lime))));
+
+        file = dir.resolve("orders.dat");
+        store = new MappedOrderStore(file, codec, CAPACITY);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void reopenRestoresSavesAndRemovals() throws IOException {
+        store.saveOrder(order(1, 3));
+        store.saveOrder(order(2, 4));
+        store.saveOrder(order(2, 6));
+        assertTrue(store.removeOrder(1));
+        assertFalse(store.removeOrder(1));
+
+        reopen();
+
+        assertEquals(Arrays.asList(2), store.getOrderIDs());
+        assertNull(store.getOrder(1));
+        assertEquals(6, store.getOrder(2).getProductQty(cola));
+        assertTrue(store.getNextOrderID() > 2);
+    }
+
+    @Test
+    public void summariesAreReadWithoutDecodingOrders() throws IOException {
+        List<Order> orders = new ArrayList<>();
+        for (int id = 1; id <= 20; id++) {
+            Order order = order(id, id);
+            orders.add(order);
+            store.saveOrder(order);
+        }
+
+        reopen();
+        codec.reads.set(0);
+        List<OrderSummary> summaries = store.getOrderSummaries();
+
+        assertEquals(0, codec.reads.get());
+        assertEquals(orders.size(), summaries.size());
+        for (int i = 0; i < orders.size(); i++) {
+            OrderSummary expected = OrderSummary.of(orders.get(i));
+            OrderSummary actual = summaries.get(i);
+            assertEquals(expected.getOrderID(), actual.getOrderID());
+            assertEquals(expected.getCustomerID(), actual.getCustomerID());
+            assertEquals(expected.getDate(), actual.getDate());
+            assertEquals(expected.getTotalCost(), actual.getTotalCost());
+        }
+    }
+
+    @Test
+    public void deltasAreAppendedAsPatchesAndSurviveReopen() throws IOException {
+        store.saveOrder(order(1, 3));
+        codec.writes.set(0);
+
+        patch(1, lime, 2);
+        patch(1, cola, 5);
+
+        assertEquals(0, codec.writes.get(), "A delta rewrote the whole order");
+        assertEquals(5, store.getOrder(1).getProductQty(cola));
+        assertEquals(2, store.getOrder(1).getProductQty(lime));
+
+        reopen();
+
+        Order order = store.getOrder(1);
+        assertEquals(5, order.getProductQty(cola));
+        assertEquals(2, order.getProductQty(lime));
+        assertEquals(1 % 4, order.getCustomer());
+        assertEquals(TestOrders.DATE.plusDays(1), order.getOrderDate());
+    }
+
+    @Test
+    public void patchesAreFoldedOnceAnOrderHasTooMany() throws IOException {
+        store.saveOrder(order(1, 1));
+        codec.writes.set(0);
+
+        for (int qty = 2; qty <= MappedOrderStore.MAX_PATCHES + 1; qty++) {
+            patch(1, cola, qty);
+        }
+        assertEquals(0, codec.writes.get());
+
+        patch(1, lime, 4); // one patch too many, so the order is rewritten whole
+        assertEquals(1, codec.writes.get());
+
+        patch(1, cola, 20); // and patched again after that
+        assertEquals(1, codec.writes.get());
+
+        reopen();
+
+        assertEquals(20, store.getOrder(1).getProductQty(cola));
+        assertEquals(4, store.getOrder(1).getProductQty(lime));
+    }
+
+    @Test
+    public void summaryOfAPatchedOrderHasItsNewTotal() throws IOException {
+        store.saveOrder(order(1, 3));
+        store.saveOrder(order(2, 3));
+        patch(1, lime, 2);
+
+        Order expected = new OrderImpl(1, 1 % 4, TestOrders.DATE.plusDays(1), new FlatRateDiscountStrat(0.9),
+                new PersonalInvoiceStrat());
+        expected.setProduct(cola, 3);
+        expected.setProduct(lime, 2);
+
+        assertEquals(expected.getTotalCost(), store.getOrderSummaries().get(0).getTotalCost());
+        codec.reads.set(0);
+        assertEquals(expected.getTotalCost(), store.getOrderSummaries().get(0).getTotalCost());
+        assertEquals(0, codec.reads.get(), "The patched order's total wasn't kept");
+
+        reopen();
+
+        assertEquals(expected.getTotalCost(), store.getOrderSummaries().get(0).getTotalCost());
+        assertEquals(order(2, 3).getTotalCost(), store.getOrderSummaries().get(1).getTotalCost());
+    }
+
+    @Test
+    public void compactionFoldsPatches() throws IOException {
+        store.saveOrder(order(1, 1));
+        store.saveOrder(order(2, 1));
+        patch(1, lime, 3);
+        for (int qty = 2; qty <= 30; qty++) {
+            store.saveOrder(order(2, qty)); // superseded records, enough for the reopen to compact
+        }
+        patch(2, lime, 5);
+
+        reopen();
+        codec.lineReads.set(0);
+
+        assertEquals(3, store.getOrder(1).getProductQty(lime));
+        assertEquals(30, store.getOrder(2).getProductQty(cola));
+        assertEquals(5, store.getOrder(2).getProductQty(lime));
+        assertEquals(0, codec.lineReads.get(), "Patches were left after compaction");
+    }
+
+    @Test
+    public void concurrentSavesAreAllDurable() throws Exception {
+        int writers = 8;
+        int ordersEach = 25;
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                int first = writer * ordersEach + 1;
+                saves.add(pool.submit(() -> {
+                    for (int id = first; id < first + ordersEach; id++) {
+                        store.saveOrder(order(id, id));
+                    }
+                }));
+            }
+            for (Future<?> save : saves) {
+                save.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        reopen();
+
+        assertEquals(writers * ordersEach, store.size());
+        for (int id = 1; id <= writers * ordersEach; id++) {
+            Order order = store.getOrder(id);
+            assertNotNull(order, "Order " + id + " was lost");
+            assertEquals(id, order.getProductQty(cola));
+        }
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = new MappedOrderStore(file, codec, CAPACITY);
+    }
+
+    private void patch(int id, Product product, int qty) {
+        store.applyChanges(Collections.emptyList(),
+                Collections.singletonList(new OrderDelta(id, Collections.singletonMap(product, qty))),
+                Collections.emptyList());
+    }
+
+    private Order order(int id, int colaQty) {
+        Order order = new OrderImpl(id, id % 4, TestOrders.DATE.plusDays(id), new FlatRateDiscountStrat(0.9),
+                new PersonalInvoiceStrat());
+        order.setProduct(cola, colaQty);
+        return OrderSnapshot.of(order);
+    }
+
+    /**
+     * Counts the orders and lines coded, to tell which reads and writes go through the codec.
+     */
+    private static class CountingCodec implements OrderCodec {
+        private final OrderCodec codec;
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger writes = new AtomicInteger();
+        private final AtomicInteger lineReads = new AtomicInteger();
+
+        private CountingCodec(OrderCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void write(Order order, DataOutput out) throws IOException {
+            writes.incrementAndGet();
+            codec.write(order, out);
+        }
+
+        @Override
+        public Order read(DataInput in) throws IOException {
+            reads.incrementAndGet();
+            return codec.read(in);
+        }
+
+        @Override
+        public void writeLines(Map<Product, Integer> lines, DataOutput out) throws IOException {
+            codec.writeLines(lines, out);
+        }
+
+        @Override
+        public Map<Product, Integer> readLines(DataInput in) throws IOException {
+            lineReads.incrementAndGet();
+            return codec.readLines(in);
+        }
+    }
+}
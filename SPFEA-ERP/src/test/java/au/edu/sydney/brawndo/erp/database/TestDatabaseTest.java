@@ -0,0 +1,172 @@
+package au.edu.sydney.brawndo.erp.database;
+
+import au.edu.sydney.brawndo.erp.auth.AuthModule;
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.spfea.TestOrders;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the version checks of TestDatabase.applyChanges and removeOrder against the real database, with an in-memory store of its own
+ * and no latency. Versions outlive the store, so each test reads the versions it expects rather than assuming them.
+ */
+public class TestDatabaseTest {
+
+    private TestDatabase database;
+    private OrderStore previousStore;
+    private AuthToken token;
+    private Product cola;
+
+    @BeforeEach
+    public void setup() {
+        database = TestDatabase.getInstance();
+        previousStore = database.getOrderStore();
+        database.setOrderStore(new InMemoryOrderStore());
+        database.setLatencyProfile(new ZeroLatencyProfile());
+        database.setProgressOutput(false);
+
+        synchronized (AuthModule.tokens) {
+            token = AuthModule.login("Beef Supreme", "hunter2");
+        }
+
+        cola = TestOrders.cola();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        synchronized (AuthModule.tokens) {
+            AuthModule.logout(token);
+        }
+        database.setOrderStore(previousStore);
+        database.setLatencyProfile(LatencyProfile.parse(System.getProperty("brawndo.db.latency", "production")));
+        database.setProgressOutput(Boolean.parseBoolean(System.getProperty("brawndo.db.progress", "true")));
+    }
+
+    @Test
+    public void changeBasedOnAStaleVersionIsRejected() {
+        int id = database.getNextOrderID();
+        long initial = database.getOrderVersion(token, id);
+        assertTrue(database.applyChanges(token, Collections.singletonList(order(id, 1)), Collections.emptyList(),
+                Collections.emptyList(), Collections.singletonMap(id, initial)).isEmpty());
+        long stored = database.getOrderVersion(token, id);
+        assertEquals(initial + 1, stored);
+
+        // Two sessions both change the version they read
+        List<VersionConflict> first = database.applyChanges(token, Collections.singletonList(order(id, 2)),
+                Collections.emptyList(), Collections.emptyList(), Collections.singletonMap(id, stored));
+        List<VersionConflict> second = database.applyChanges(token, Collections.singletonList(order(id, 3)),
+                Collections.emptyList(), Collections.emptyList(), Collections.singletonMap(id, stored));
+
+        assertTrue(first.isEmpty());
+        assertEquals(1, second.size());
+        assertEquals(id, second.get(0).getOrderID());
+        assertEquals(stored, second.get(0).getExpectedVersion());
+        assertEquals(stored + 1, second.get(0).getActualVersion());
+        assertEquals(2, database.getOrder(token, id).getProductQty(cola));
+        assertEquals(stored + 1, database.getOrderVersion(token, id));
+    }
+
+    @Test
+    public void staleDeltasAndRemovalsAreRejected() {
+        int edited = database.getNextOrderID();
+        int removed = database.getNextOrderID();
+        database.saveOrders(token, Arrays.asList(order(edited, 1), order(removed, 1)));
+        long editedVersion = database.getOrderVersion(token, edited);
+        long removedVersion = database.getOrderVersion(token, removed);
+        database.saveOrders(token, Arrays.asList(order(edited, 5), order(removed, 5))); // another session's change
+
+        Map<Integer, Long> expected = new HashMap<>();
+        expected.put(edited, editedVersion);
+        expected.put(removed, removedVersion);
+        List<VersionConflict> conflicts = database.applyChanges(token, Collections.emptyList(),
+                Collections.singletonList(new OrderDelta(edited, Collections.singletonMap(cola, 9))),
+                Collections.singletonList(removed), expected);
+
+        assertEquals(2, conflicts.size());
+        assertEquals(5, database.getOrder(token, edited).getProductQty(cola));
+        assertNotNull(database.getOrder(token, removed));
+    }
+
+    @Test
+    public void aConflictOnlyRejectsItsOwnOrder() {
+        int stale = database.getNextOrderID();
+        int fresh = database.getNextOrderID();
+        database.saveOrders(token, Arrays.asList(order(stale, 1), order(fresh, 1)));
+        long staleVersion = database.getOrderVersion(token, stale);
+        database.saveOrder(token, order(stale, 4));
+
+        Map<Integer, Long> expected = new HashMap<>();
+        expected.put(stale, staleVersion);
+        expected.put(fresh, database.getOrderVersion(token, fresh));
+        List<VersionConflict> conflicts = database.applyChanges(token, Collections.singletonList(order(stale, 7)),
+                Collections.emptyList(), Collections.singletonList(fresh), expected);
+
+        assertEquals(1, conflicts.size());
+        assertEquals(stale, conflicts.get(0).getOrderID());
+        assertEquals(4, database.getOrder(token, stale).getProductQty(cola));
+        assertNull(database.getOrder(token, fresh));
+    }
+
+    @Test
+    public void changesWithoutAnExpectedVersionAlwaysApply() {
+        int id = database.getNextOrderID();
+        database.saveOrder(token, order(id, 1));
+        database.saveOrder(token, order(id, 2));
+
+        List<VersionConflict> conflicts = database.applyChanges(token, Collections.singletonList(order(id, 3)),
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyMap());
+
+        assertTrue(conflicts.isEmpty());
+        assertEquals(3, database.getOrder(token, id).getProductQty(cola));
+    }
+
+    @Test
+    public void removalBasedOnAStaleVersionDoesNothing() {
+        int id = database.getNextOrderID();
+        database.saveOrder(token, order(id, 1));
+        long version = database.getOrderVersion(token, id);
+        database.saveOrder(token, order(id, 2));
+
+        assertFalse(database.removeOrder(token, id, version));
+        assertEquals(2, database.getOrder(token, id).getProductQty(cola));
+
+        assertTrue(database.removeOrder(token, id, database.getOrderVersion(token, id)));
+        assertNull(database.getOrder(token, id));
+    }
+
+    @Test
+    public void onlyARemovalThatRemovesChangesTheVersion() {
+        int id = database.getNextOrderID();
+        long missing = database.getOrderVersion(token, id);
+
+        assertFalse(database.removeOrder(token, id));
+        assertFalse(database.removeOrder(token, id, missing));
+        assertEquals(missing, database.getOrderVersion(token, id));
+
+        database.saveOrder(token, order(id, 1));
+        long saved = database.getOrderVersion(token, id);
+        assertTrue(database.removeOrder(token, id));
+        assertEquals(saved + 1, database.getOrderVersion(token, id));
+    }
+
+    private Order order(int id, int colaQty) {
+        return TestOrders.order(id, cola, colaQty);
+    }
+}
@@ -28,6 +28,8 @@ import java.util.regex.Pattern;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.MatcherAssert.assertThat; 
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.doNothing;
@@ -93,6 +95,16 @@ public class AllowedScopeTest {
         }
     }
 
+    private Order captureCommittedOrder() {
+        // Commits are written in the background after logout, under a token of their own, so wait for the write to reach the database
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<Order>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(mockedDB, timeout(5000)).applyChanges(any(), captor.capture(), anyCollection(), anyCollection(), anyMap());
+
+        assertEquals(1, captor.getValue().size());
+        return captor.getValue().iterator().next();
+    }
+
     @Test
     public void login() {
         try (MockedStatic<AuthModule> authModuleMock = mockStatic(AuthModule.class)) {
@@ -121,18 +133,15 @@ public class AllowedScopeTest {
 
         setupLogin();
 
-        Order mockedOrder1 = mock(Order.class);
-        when(mockedOrder1.getOrderID()).thenReturn(1001);
-        Order mockedOrder2 = mock(Order.class);
-        when(mockedOrder2.getOrderID()).thenReturn(2002);
-        when(mockedDB.getOrders(mockedToken)).thenReturn(Arrays.asList(mockedOrder1, mockedOrder2));
+        when(mockedDB.getOrderIDs(mockedToken)).thenReturn(Arrays.asList(1001, 2002));
 
         List<Integer> result = facade.getAllOrders();
         assertEquals(2, result.size());
         assertTrue(result.contains(1001));
         assertTrue(result.contains(2002));
 
-        verify(mockedDB).getOrders(mockedToken);
+        verify(mockedDB).getOrderIDs(mockedToken);
+        verify(mockedDB, never()).getOrders(mockedToken);
     }
 
     @Test
@@ -170,14 +179,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, false, 2, 10, 20, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
@@ -201,14 +206,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, true, 2, 10, 20, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
@@ -232,14 +233,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, false, 1, 100000, 50, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
@@ -263,14 +260,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), true, true, 1, 10000, 50, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
@@ -299,14 +292,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, false, 2, 10, 20, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
@@ -334,14 +323,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, true, 2, 10, 20, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
@@ -370,14 +355,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, false, 1, 10, 50, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
@@ -404,14 +385,10 @@ public class AllowedScopeTest {
         setupLogin();
         when(mockedDB.getCustomerIDs(mockedToken)).thenReturn(Arrays.asList(1, 2, 3));
 
-        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
-        doNothing().when(mockedDB).saveOrder(eq(mockedToken), captor.capture());
-
         int testOrderID = facade.createOrder(2, LocalDateTime.now(), false, true, 1, 10, 50, 10);
         facade.logout();
 
-        verify(mockedDB).saveOrder(eq(mockedToken), any());
-        Order order = captor.getValue();
+        Order order = captureCommittedOrder();
         assertEquals(testOrderID, order.getOrderID());
 
         order.setProduct(mockedProd100, 10);
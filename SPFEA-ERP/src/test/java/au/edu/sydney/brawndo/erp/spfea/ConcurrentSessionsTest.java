@@ -0,0 +1,243 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthModule;
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.InMemoryOrderStore;
+import au.edu.sydney.brawndo.erp.database.OrderStore;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.database.ZeroLatencyProfile;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Races sessions on the same stored order through the real TestDatabase, with an in-memory store of its own and no
+ * latency, to check that of two changes based on the same version only the first lands.
+ */
+public class ConcurrentSessionsTest {
+
+    private TestDatabase database;
+    private OrderStore previousStore;
+    private AuthToken setupToken;
+    private Product cola;
+    private Product lime;
+    private int orderID;
+
+    @BeforeEach
+    public void setup() {
+        database = TestDatabase.getInstance();
+        previousStore = database.getOrderStore();
+        database.setOrderStore(new InMemoryOrderStore());
+        database.setLatencyProfile(new ZeroLatencyProfile());
+        database.setProgressOutput(false);
+
+        cola = TestOrders.cola();
+        lime = TestOrders.lime();
+
+        synchronized (AuthModule.tokens) {
+            setupToken = AuthModule.login("Beef Supreme", "hunter2");
+        }
+        orderID = database.getNextOrderID();
+        database.saveOrder(setupToken, TestOrders.order(orderID, cola, 1));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        synchronized (AuthModule.tokens) {
+            AuthModule.logout(setupToken);
+        }
+        database.setOrderStore(previousStore);
+        database.setProgressOutput(Boolean.parseBoolean(System.getProperty("brawndo.db.progress", "true")));
+    }
+
+    @Test
+    public void secondEditOfTheSameVersionConflicts() {
+        SPFEAFacade first = login();
+        SPFEAFacade second = login();
+
+        first.orderLineSet(orderID, cola, 2);
+        second.orderLineSet(orderID, lime, 3);
+
+        CommitResult firstResult = first.endSession().join();
+        CommitResult secondResult = second.endSession().join();
+
+        assertEquals(1, firstResult.getSavedCount());
+        assertFalse(firstResult.hasConflicts());
+        assertEquals(0, secondResult.getSavedCount());
+        assertEquals(1, secondResult.getConflicts().size());
+        assertEquals(orderID, secondResult.getConflicts().get(0).getOrderID());
+
+        Order stored = storedOrder();
+        assertEquals(2, stored.getProductQty(cola));
+        assertEquals(0, stored.getProductQty(lime));
+    }
+
+    @Test
+    public void removalOfAnOrderChangedSinceItWasReadFails() {
+        SPFEAFacade remover = login();
+        assertEquals(1, remover.findOrder(orderID).getProductQty(cola));
+
+        Order changed = storedOrder().copy();
+        changed.setProduct(cola, 4);
+        database.saveOrder(setupToken, changed); // written behind the session's back, so its cache isn't told
+
+        assertFalse(remover.removeOrder(orderID));
+        assertEquals(4, storedOrder().getProductQty(cola));
+        assertEquals(4, remover.findOrder(orderID).getProductQty(cola)); // the failed removal dropped the stale copy
+        remover.endSession().join();
+    }
+
+    @Test
+    public void removalLandsStraightAway() {
+        SPFEAFacade remover = login();
+        SPFEAFacade reader = login();
+        SPFEAFacade editor = login();
+        assertNotNull(remover.findOrder(orderID));
+        assertNotNull(reader.findOrder(orderID));
+        editor.orderLineSet(orderID, cola, 4);
+
+        assertTrue(remover.removeOrder(orderID));
+
+        assertNull(storedOrder());
+        assertFalse(remover.getAllOrders().contains(orderID));
+        assertNull(reader.findOrder(orderID)); // dropped from the other session's cache too
+        CommitResult editResult = editor.endSession().join();
+        assertEquals(1, editResult.getConflicts().size()); // the edit was based on the removed order
+        assertNull(storedOrder());
+        remover.endSession().join();
+        reader.endSession().join();
+    }
+
+    @Test
+    public void cachedOrdersReflectOtherSessionsCommits() {
+        SPFEAFacade reader = login();
+        SPFEAFacade writer = login();
+
+        assertEquals(1, reader.findOrder(orderID).getProductQty(cola));
+        assertEquals(1, reader.findOrder(orderID).getProductQty(cola));
+        assertEquals(1, reader.getOrderCache().getHitCount());
+
+        writer.orderLineSet(orderID, cola, 7);
+        writer.endSession().join();
+
+        assertEquals(7, reader.findOrder(orderID).getProductQty(cola));
+        assertEquals(7, reader.getOrderTotalCost(orderID) / cola.getCost(), 1e-9);
+        assertEquals(2, reader.getOrderCache().getHitCount()); // the new order is cached in turn
+
+        writer = login();
+        assertTrue(writer.removeOrder(orderID));
+        writer.endSession().join();
+
+        assertNull(reader.findOrder(orderID));
+        reader.endSession().join();
+    }
+
+    @Test
+    public void sessionsCommittingTogetherLandExactlyOneChange() throws Exception {
+        int sessions = 8;
+        List<SPFEAFacade> facades = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            SPFEAFacade facade = login();
+            facade.orderLineSet(orderID, cola, 10 + i); // all based on the same version
+            facades.add(facade);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(sessions);
+        List<Future<CompletableFuture<CommitResult>>> commits = new ArrayList<>();
+        try {
+            for (SPFEAFacade facade : facades) {
+                commits.add(pool.submit(() -> {
+                    start.await();
+                    return facade.endSession();
+                }));
+            }
+            start.countDown();
+
+            int saved = 0;
+            int conflicts = 0;
+            for (Future<CompletableFuture<CommitResult>> commit : commits) {
+                CommitResult result = commit.get().join();
+                saved += result.getSavedCount();
+                conflicts += result.getConflicts().size();
+            }
+
+            assertEquals(1, saved);
+            assertEquals(sessions - 1, conflicts);
+        } finally {
+            pool.shutdown();
+        }
+
+        int qty = storedOrder().getProductQty(cola);
+        assertTrue(qty >= 10 && qty < 10 + sessions, "Unexpected quantity " + qty);
+    }
+
+    @Test
+    public void loggingOutInvalidatesTheTokenWhileTheLastCommitIsWritten() throws InterruptedException {
+        int loggedIn = tokenCount();
+        SPFEAFacade session = login();
+        session.orderLineSet(orderID, cola, 3);
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        database.setLatencyProfile(operation -> { // holds the write until the test has looked at the tokens
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 0;
+        });
+        try {
+            CompletableFuture<CommitResult> commit = session.endSession();
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            assertEquals(loggedIn + 1, tokenCount()); // the commit's token, the session's is gone already
+            assertThrows(SecurityException.class, () -> session.findOrder(orderID));
+
+            release.countDown();
+            assertEquals(1, commit.join().getSavedCount());
+        } finally {
+            release.countDown();
+            database.setLatencyProfile(new ZeroLatencyProfile());
+        }
+        assertEquals(loggedIn, tokenCount());
+        assertEquals(3, storedOrder().getProductQty(cola));
+    }
+
+    private int tokenCount() {
+        synchronized (AuthModule.tokens) {
+            return AuthModule.tokens.size();
+        }
+    }
+
+    private SPFEAFacade login() {
+        SPFEAFacade facade = new SPFEAFacade();
+        assertTrue(facade.login("Beef Supreme", "hunter2"));
+        return facade;
+    }
+
+    private Order storedOrder() {
+        return database.getOrder(setupToken, orderID);
+    }
+}
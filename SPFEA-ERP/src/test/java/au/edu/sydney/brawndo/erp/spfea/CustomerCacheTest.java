@@ -0,0 +1,210 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests CustomerCache against a stubbed TestDatabase, with times to live short enough to wait out. Each customer's
+ * first name carries a load count, so a test can tell which load a value came from.
+ */
+public class CustomerCacheTest {
+
+    private TestDatabase database;
+    private AuthToken token;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    public void setup() {
+        database = mock(TestDatabase.class);
+        token = mock(AuthToken.class);
+        when(database.getCustomerFields(eq(token), anyInt(), anyCollection())).thenAnswer(invocation ->
+                record(invocation.getArgument(1)).select(invocation.getArgument(2)));
+        when(database.getCustomerRecords(eq(token), anyCollection())).thenAnswer(invocation -> {
+            List<CustomerRecord> records = new ArrayList<>();
+            for (Integer id : invocation.<Collection<Integer>>getArgument(1)) {
+                records.add(record(id));
+            }
+            return records;
+        });
+    }
+
+    @Test
+    public void readsAreServedFromTheCacheUntilTheyExpire() throws InterruptedException {
+        CustomerCache cache = cache(200, 1);
+
+        assertEquals("Customer1-1", cache.getField(token, 1, "fName"));
+        assertEquals("Customer1-1", cache.getField(token, 1, "lName")); // same group
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+
+        Thread.sleep(300);
+
+        assertEquals("Customer1-2", cache.getField(token, 1, "fName"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void onlyTheGroupReadIsLoaded() {
+        CustomerCache cache = cache(60_000, 1);
+
+        assertEquals("1 Main St", cache.getField(token, 1, "address"));
+
+        verify(database).getCustomerFields(token, 1, CustomerFieldGroup.POSTAL.getFieldNames());
+        verify(database, times(1)).getCustomerFields(eq(token), anyInt(), anyCollection());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void entriesCloseToExpiringAreRefreshedInTheBackground() throws InterruptedException {
+        CustomerCache cache = cache(1_000, 0.2);
+        assertEquals("Customer1-1", cache.getField(token, 1, "fName"));
+
+        Thread.sleep(300); // past the refresh point, well short of expiring
+
+        assertEquals("Customer1-1", cache.getField(token, 1, "fName")); // the current data, without waiting
+        verify(database, timeout(2_000).times(2)).getCustomerFields(eq(token), eq(1), anyCollection());
+        waitFor(() -> cache.getRefreshCount() == 1);
+        assertEquals("Customer1-2", cache.getField(token, 1, "fName"));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void concurrentReadsShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(database.getCustomerFields(eq(token), eq(2), anyCollection())).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(); // hold the load open until every reader is waiting on it
+            return record(2).select(invocation.getArgument(2));
+        });
+        CustomerCache cache = cache(60_000, 1);
+
+        int readers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<String>> reads = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                reads.add(pool.submit(() -> cache.getField(token, 2, "fName")));
+            }
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<String> read : reads) {
+                assertEquals("Customer2-1", read.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        verify(database, times(1)).getCustomerFields(eq(token), eq(2), anyCollection());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(readers - 1, cache.getHitCount());
+    }
+
+    @Test
+    public void invalidatedCustomersAreLoadedAgain() {
+        CustomerCache cache = cache(60_000, 1);
+        cache.getField(token, 1, "fName");
+        cache.getField(token, 1, "phoneNumber");
+        cache.getField(token, 2, "fName");
+
+        cache.invalidate(1);
+        cache.invalidate(3); // never cached, so not counted
+
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(1, cache.size());
+        assertEquals("Customer1-4", cache.getField(token, 1, "fName"));
+        assertEquals("Customer2-3", cache.getField(token, 2, "fName"));
+
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.getInvalidationCount());
+        assertEquals("Customer2-5", cache.getField(token, 2, "fName"));
+    }
+
+    @Test
+    public void failedLoadsAreNotCached() {
+        when(database.getCustomerFields(eq(token), eq(1), anyCollection()))
+                .thenThrow(new SecurityException("Invalid authorisation"))
+                .thenAnswer(invocation -> record(1).select(invocation.getArgument(2)));
+        CustomerCache cache = cache(60_000, 1);
+
+        assertThrows(SecurityException.class, () -> cache.getField(token, 1, "fName"));
+        assertEquals(0, cache.size());
+        assertEquals("Customer1-1", cache.getField(token, 1, "fName"));
+    }
+
+    @Test
+    public void bulkLoadsFillEveryGroup() {
+        CustomerCache cache = cache(60_000, 1);
+
+        Map<Integer, CustomerImpl> customers = cache.getAll(token, Arrays.asList(1, 2));
+
+        assertEquals(2 * CustomerFieldGroup.values().length, cache.size());
+        assertEquals(customers.get(2).getfName(), cache.getField(token, 2, "fName"));
+        assertEquals("1 Main St", cache.getField(token, 1, "address"));
+        assertNull(cache.getField(token, 1, "pigeonCoopID"));
+        verify(database, times(1)).getCustomerRecords(eq(token), anyCollection());
+        verify(database, never()).getCustomerFields(eq(token), anyInt(), anyCollection());
+    }
+
+    private CustomerCache cache(long ttlMillis, double refreshAhead) {
+        return new CustomerCache(ttlMillis, TimeUnit.MILLISECONDS, refreshAhead, () -> database);
+    }
+
+    /**
+     * A customer record whose first name counts the loads made so far in the test.
+     */
+    private CustomerRecord record(int id) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("fName", "Customer" + id + "-" + loads.incrementAndGet());
+        fields.put("lName", "Customer" + id + "-" + loads.get());
+        fields.put("phoneNumber", "555-000" + id);
+        fields.put("address", id + " Main St");
+        fields.put("suburb", "Suburb" + (id % 2));
+        return new CustomerRecord(id, fields);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests CustomerIndex directly, and as CustomerCache keeps it current against a stubbed TestDatabase whose customers
+ * the tests change.
+ */
+public class CustomerIndexTest {
+
+    private CustomerIndex index;
+    private TestDatabase database;
+    private AuthToken token;
+    private final Map<Integer, CustomerRecord> customers = new ConcurrentHashMap<>(); // the stubbed database's rows
+
+    @BeforeEach
+    public void setup() {
+        index = new CustomerIndex();
+
+        database = mock(TestDatabase.class);
+        token = mock(AuthToken.class);
+        when(database.getCustomerFields(eq(token), anyInt(), anyCollection())).thenAnswer(invocation ->
+                customers.get(invocation.<Integer>getArgument(1)).select(invocation.getArgument(2)));
+        when(database.getCustomerRecords(eq(token), anyCollection())).thenAnswer(invocation -> {
+            List<CustomerRecord> records = new ArrayList<>();
+            for (Integer id : invocation.<Collection<Integer>>getArgument(1)) {
+                if (customers.containsKey(id)) {
+                    records.add(customers.get(id));
+                }
+            }
+            return records;
+        });
+    }
+
+    @Test
+    public void valuesAreMatchedWholeIgnoringCaseAndSpacing() {
+        index.update(customer(1, "Ann", "Lee", "Glebe"));
+        index.update(customer(2, "Bob", "Lee", "Surry  Hills"));
+        index.update(customer(3, "Cat", "Ng", "Glebe"));
+
+        assertEquals(Arrays.asList(1, 3), index.find("suburb", "GLEBE"));
+        assertEquals(Collections.singletonList(2), index.find("suburb", " surry hills "));
+        assertTrue(index.find("suburb", "Surry").isEmpty());
+        assertTrue(index.find("suburb", "").isEmpty());
+        assertEquals(Arrays.asList(1, 2), index.findByName("lee"));
+        assertEquals(Collections.singletonList(1), index.findByName("ann  LEE"));
+        assertThrows(IllegalArgumentException.class, () -> index.find("phoneNumber", "555"));
+    }
+
+    @Test
+    public void updatesMoveACustomerToTheirNewValues() {
+        index.update(customer(1, "Ann", "Lee", "Glebe"));
+        index.update(customer(1, "Ann", "Ng", "Newtown"));
+
+        assertTrue(index.find("suburb", "Glebe").isEmpty());
+        assertTrue(index.findByName("Ann Lee").isEmpty());
+        assertEquals(Collections.singletonList(1), index.find("suburb", "Newtown"));
+        assertEquals(Collections.singletonList(1), index.findByName("Ann Ng"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void partialRecordsOnlyUpdateTheFieldsTheyHold() {
+        index.update(customer(1, "Ann", "Lee", "Glebe"));
+        index.update(customer(1, "Ann", "Lee", "Newtown").select(CustomerFieldGroup.POSTAL.getFieldNames()));
+        index.update(customer(1, "Anne", "Lee", "Glebe").select(Collections.singletonList("fName")));
+
+        assertEquals(Collections.singletonList(1), index.find("suburb", "Newtown"));
+        assertEquals(Collections.singletonList(1), index.findByName("Anne Lee"));
+        assertTrue(index.findByName("Ann").isEmpty());
+    }
+
+    @Test
+    public void customersWithNoValuesAreDropped() {
+        index.update(customer(1, "Ann", "Lee", "Glebe"));
+        index.update(new CustomerRecord(1, blank()));
+
+        assertEquals(0, index.size());
+        assertTrue(index.findByName("Ann").isEmpty());
+    }
+
+    @Test
+    public void retainAllDropsEveryoneElse() {
+        index.update(customer(1, "Ann", "Lee", "Glebe"));
+        index.update(customer(2, "Bob", "Lee", "Glebe"));
+        index.update(customer(3, "Cat", "Ng", "Newtown"));
+
+        index.retainAll(Arrays.asList(2, 4));
+
+        assertEquals(1, index.size());
+        assertEquals(Collections.singletonList(2), index.find("suburb", "Glebe"));
+        assertTrue(index.find("suburb", "Newtown").isEmpty());
+        assertEquals(Collections.singletonList(2), index.findByName("Lee"));
+    }
+
+    @Test
+    public void invalidatedCustomersAreReindexedBeforeTheNextSearch() {
+        CustomerCache cache = new CustomerCache(60_000, TimeUnit.MILLISECONDS, 1, () -> database);
+        customers.put(1, customer(1, "Ann", "Lee", "Glebe"));
+        customers.put(2, customer(2, "Bob", "Lee", "Glebe"));
+        List<Integer> ids = Arrays.asList(1, 2);
+
+        assertEquals(ids, cache.getIndex(token, ids).find("suburb", "Glebe"));
+
+        customers.put(1, customer(1, "Ann", "Lee", "Newtown"));
+        assertEquals(ids, cache.getIndex(token, ids).find("suburb", "Glebe")); // still cached
+
+        clearInvocations(database);
+        cache.invalidate(1);
+        CustomerIndex reindexed = cache.getIndex(token, ids);
+
+        assertEquals(Collections.singletonList(2), reindexed.find("suburb", "Glebe"));
+        assertEquals(Collections.singletonList(1), reindexed.find("suburb", "Newtown"));
+        verify(database).getCustomerRecords(token, Collections.singleton(1)); // only the invalidated customer
+        verify(database, times(1)).getCustomerRecords(eq(token), anyCollection());
+
+        clearInvocations(database);
+        cache.getIndex(token, ids);
+        verify(database, never()).getCustomerRecords(eq(token), anyCollection());
+    }
+
+    @Test
+    public void expiredIndexIsRebuiltWithoutRemovedCustomers() throws InterruptedException {
+        CustomerCache cache = new CustomerCache(200, TimeUnit.MILLISECONDS, 1, () -> database);
+        customers.put(1, customer(1, "Ann", "Lee", "Glebe"));
+        customers.put(2, customer(2, "Bob", "Lee", "Glebe"));
+        customers.put(3, customer(3, "Cat", "Ng", "Glebe"));
+
+        assertEquals(3, cache.getIndex(token, Arrays.asList(1, 2, 3)).size());
+
+        customers.remove(3);
+        customers.put(2, customer(2, "Bob", "Lee", "Newtown"));
+        Thread.sleep(300);
+
+        CustomerIndex rebuilt = cache.getIndex(token, Arrays.asList(1, 2));
+
+        assertEquals(2, rebuilt.size());
+        assertEquals(Collections.singletonList(1), rebuilt.find("suburb", "Glebe"));
+        assertEquals(Collections.singletonList(2), rebuilt.find("suburb", "Newtown"));
+        assertTrue(rebuilt.findByName("Cat").isEmpty());
+    }
+
+    private static CustomerRecord customer(int id, String fName, String lName, String suburb) {
+        Map<String, String> fields = blank();
+        fields.put("fName", fName);
+        fields.put("lName", lName);
+        fields.put("suburb", suburb);
+        fields.put("state", "NSW");
+        return new CustomerRecord(id, fields);
+    }
+
+    private static Map<String, String> blank() {
+        Map<String, String> fields = new HashMap<>();
+        for (String fieldName : CustomerRecord.FIELD_NAMES) {
+            fields.put(fieldName, null);
+        }
+        return fields;
+    }
+}
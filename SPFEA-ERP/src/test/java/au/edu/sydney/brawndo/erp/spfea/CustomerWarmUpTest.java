@@ -0,0 +1,150 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthModule;
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.database.ZeroLatencyProfile;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Warms up a CustomerDirectory whose customers are loaded from a stubbed TestDatabase that holds every bulk fetch until
+ * the test releases it. The customer IDs come from the real TestDatabase, without latency.
+ */
+public class CustomerWarmUpTest {
+
+    private TestDatabase database;
+    private AuthToken token;
+    private CustomerDirectory directory;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger fetching = new AtomicInteger();
+    private final AtomicInteger mostFetching = new AtomicInteger();
+
+    @BeforeEach
+    public void setup() {
+        TestDatabase.getInstance().setLatencyProfile(new ZeroLatencyProfile());
+        TestDatabase.getInstance().setProgressOutput(false);
+        synchronized (AuthModule.tokens) {
+            token = AuthModule.login("Beef Supreme", "hunter2");
+        }
+
+        database = mock(TestDatabase.class);
+        when(database.getCustomerRecords(any(), anyCollection())).thenAnswer(invocation -> {
+            mostFetching.accumulateAndGet(fetching.incrementAndGet(), Math::max);
+            try {
+                release.await(); // hold the fetch open until the test has looked at the warm-up
+            } finally {
+                fetching.decrementAndGet();
+            }
+            List<CustomerRecord> records = new ArrayList<>();
+            for (Integer id : invocation.<Collection<Integer>>getArgument(1)) {
+                records.add(record(id));
+            }
+            return records;
+        });
+        directory = new CustomerDirectory(new CustomerCache(60_000, TimeUnit.MILLISECONDS, 1, () -> database));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        synchronized (AuthModule.tokens) {
+            AuthModule.logout(token);
+        }
+        TestDatabase.getInstance().setProgressOutput(
+                Boolean.parseBoolean(System.getProperty("brawndo.db.progress", "true")));
+    }
+
+    @Test
+    public void noMoreFetchesRunAtOnceThanTheParallelism() throws InterruptedException {
+        int customers = TestDatabase.getInstance().getCustomerIDs(token).size();
+
+        CustomerWarmUp warmUp = directory.warmUp(token, 2);
+        waitFor(() -> fetching.get() == 2);
+        Thread.sleep(100); // long enough for a third fetch to have started, if there were one
+
+        assertEquals(2, fetching.get());
+        assertEquals(customers, warmUp.getTotal());
+        assertEquals(0, warmUp.getLoadedCount());
+        assertFalse(warmUp.isDone());
+
+        release.countDown();
+        warmUp.getCompletion().join();
+
+        assertEquals(2, mostFetching.get());
+        assertEquals(customers, warmUp.getLoadedCount());
+        verify(database, times(2)).getCustomerRecords(any(), anyCollection());
+    }
+
+    @Test
+    public void onlyOneWarmUpRunsPerDirectory() {
+        CustomerWarmUp warmUp = directory.warmUp(token, 2);
+
+        assertSame(warmUp, directory.warmUp(token, 4));
+        assertThrows(IllegalArgumentException.class, () -> directory.warmUp(token, 0));
+
+        release.countDown();
+        warmUp.getCompletion().join();
+        assertSame(warmUp, directory.warmUp(token, 2));
+    }
+
+    @Test
+    public void readsDuringTheWarmUpWaitForItsLoad() throws Exception {
+        CustomerWarmUp warmUp = directory.warmUp(token, 1);
+        waitFor(() -> fetching.get() == 1);
+
+        CompletableFuture<String> read = CompletableFuture.supplyAsync(() -> directory.getField(token, 1, "fName"));
+        Thread.sleep(100);
+        assertFalse(read.isDone());
+
+        release.countDown();
+
+        assertEquals("Customer1", read.get(5, TimeUnit.SECONDS));
+        warmUp.getCompletion().join();
+        verify(database, never()).getCustomerFields(any(), anyInt(), anyCollection());
+        verify(database, times(1)).getCustomerRecords(any(), anyCollection());
+    }
+
+    private static CustomerRecord record(int id) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("fName", "Customer" + id);
+        fields.put("lName", "Customer" + id);
+        return new CustomerRecord(id, fields);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}
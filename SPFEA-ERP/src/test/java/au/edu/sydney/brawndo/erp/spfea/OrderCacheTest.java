@@ -0,0 +1,126 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.database.OrderSnapshot;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests OrderCache's invalidation, weighing and eviction.
+ */
+public class OrderCacheTest {
+
+    private Product cola;
+    private Product lime;
+
+    @BeforeEach
+    public void setup() {
+        cola = TestOrders.cola();
+        lime = TestOrders.lime();
+    }
+
+    @Test
+    public void ordersAreServedUntilInvalidated() {
+        OrderCache cache = new OrderCache(100);
+        OrderSnapshot order = order(1, cola);
+        cache.put(order, 3);
+
+        assertSame(order, cache.get(1));
+        assertEquals(3, cache.getVersion(1));
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        assertEquals(OrderCommitter.UNKNOWN_VERSION, cache.getVersion(1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void recachingAnOrderReplacesItsVersion() {
+        OrderCache cache = new OrderCache(100);
+        cache.put(order(1, cola), 3);
+        OrderSnapshot newer = order(1, cola, lime);
+        cache.put(newer, 4);
+
+        assertSame(newer, cache.get(1));
+        assertEquals(4, cache.getVersion(1));
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.getWeight());
+    }
+
+    @Test
+    public void readsRacingAnInvalidationAreNotCached() {
+        OrderCache cache = new OrderCache(100);
+        long generation = cache.getGeneration();
+        cache.invalidate(2); // a write lands while order 1 is being read
+
+        cache.put(order(1, cola), 3, generation);
+
+        assertNull(cache.get(1));
+        cache.put(order(1, cola), 3, cache.getGeneration());
+        assertEquals(3, cache.getVersion(1));
+    }
+
+    @Test
+    public void writesInvalidateOnlyOpenCaches() {
+        OrderCache open = new OrderCache(100);
+        OrderCache closed = new OrderCache(100);
+        open.open();
+        try {
+            open.put(order(1, cola), 1);
+            open.put(order(2, lime), 1);
+            closed.put(order(1, cola), 1);
+
+            OrderCache.invalidateOpen(Collections.singletonList(1));
+
+            assertNull(open.get(1));
+            assertEquals(1, open.getVersion(2));
+            assertEquals(1, closed.getVersion(1));
+        } finally {
+            open.close();
+        }
+        assertEquals(0, open.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedOrdersAreEvictedByWeight() {
+        OrderCache cache = new OrderCache(6);
+        cache.put(order(1, cola), 1); // weighs 2
+        cache.put(order(2, cola, lime), 1); // weighs 3
+        cache.get(1);
+        cache.put(order(3, lime), 1); // over by 1, so order 2 goes
+
+        assertNull(cache.get(2));
+        assertEquals(2, cache.size());
+        assertEquals(4, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void onlySnapshotsThatFitAreCached() {
+        OrderCache cache = new OrderCache(2);
+        Order mutable = TestOrders.order(1);
+        cache.put(mutable, 1);
+        cache.put(order(2, cola, lime), 1);
+        cache.put(null, 1);
+
+        assertEquals(0, cache.size());
+    }
+
+    private OrderSnapshot order(int id, Product... products) {
+        Order order = TestOrders.order(id);
+        for (Product product : products) {
+            order.setProduct(product, 1);
+        }
+        return OrderSnapshot.of(order);
+    }
+}
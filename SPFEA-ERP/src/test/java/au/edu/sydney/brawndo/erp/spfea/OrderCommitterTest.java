@@ -0,0 +1,123 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.database.VersionConflict;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static au.edu.sydney.brawndo.erp.spfea.TestOrders.order;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that OrderCommitter writes each change set in one call, and how it turns the conflicts the database reports
+ * into the counts of a CommitResult.
+ */
+public class OrderCommitterTest {
+
+    private TestDatabase database;
+    private AuthToken token;
+    private OrderCommitter committer;
+
+    @BeforeEach
+    public void setup() {
+        database = mock(TestDatabase.class);
+        token = mock(AuthToken.class);
+        committer = new OrderCommitter();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        committer.shutdown();
+    }
+
+    @Test
+    public void countsEverythingWhenNothingConflicts() {
+        CommitResult result = committer.submit(token, database, Arrays.asList(order(1), order(2)),
+                Collections.emptyMap(), Collections.singletonList(3), Collections.emptyMap()).join();
+
+        assertEquals(2, result.getSavedCount());
+        assertEquals(1, result.getRemovedCount());
+        assertFalse(result.hasConflicts());
+    }
+
+    @Test
+    public void conflictingSavesAndRemovalsAreNotCounted() {
+        Map<Integer, Long> expected = new HashMap<>();
+        expected.put(1, 4L);
+        expected.put(3, 2L);
+        List<VersionConflict> conflicts = Arrays.asList(new VersionConflict(1, 4, 5), new VersionConflict(3, 2, 3));
+        when(database.applyChanges(eq(token), anyCollection(), anyCollection(), anyCollection(), anyMap()))
+                .thenReturn(conflicts);
+
+        CommitResult result = committer.submit(token, database, Arrays.asList(order(1), order(2)),
+                Collections.emptyMap(), Collections.singletonList(3), expected).join();
+
+        assertEquals(1, result.getSavedCount());
+        assertEquals(0, result.getRemovedCount());
+        assertTrue(result.hasConflicts());
+        assertEquals(conflicts, result.getConflicts());
+    }
+
+    @Test
+    public void aLargeChangeSetIsWrittenInOneCall() {
+        List<Order> saves = new ArrayList<>();
+        List<Integer> removals = new ArrayList<>();
+        for (int id = 1; id <= 200; id++) {
+            saves.add(order(id));
+            removals.add(1000 + id);
+        }
+
+        CommitResult result = committer.submit(token, database, saves, Collections.emptyMap(), removals,
+                Collections.emptyMap()).join();
+
+        verify(database).applyChanges(token, saves, Collections.emptyList(), removals, Collections.emptyMap());
+        assertEquals(200, result.getSavedCount());
+        assertEquals(200, result.getRemovedCount());
+    }
+
+    @Test
+    public void aFailedWriteFailsTheWholeChangeSet() {
+        when(database.applyChanges(eq(token), anyCollection(), anyCollection(), anyCollection(), anyMap()))
+                .thenThrow(new SecurityException("Invalid authorisation"));
+
+        CompletionException e = assertThrows(CompletionException.class, () -> committer.submit(token, database,
+                Arrays.asList(order(1), order(2)), Collections.emptyMap(), Collections.singletonList(3),
+                Collections.emptyMap()).join());
+
+        assertTrue(e.getCause() instanceof SecurityException);
+        assertNull(committer.lookup(1)); // nothing is left looking as if it is still being written
+        assertNull(committer.lookup(3));
+    }
+
+    @Test
+    public void emptyChangeSetCountsNothing() {
+        CommitResult result = committer.submit(token, database, Collections.emptyList(), Collections.emptyList())
+                .join();
+
+        assertEquals(0, result.getSavedCount());
+        assertEquals(0, result.getRemovedCount());
+        assertFalse(result.hasConflicts());
+    }
+}
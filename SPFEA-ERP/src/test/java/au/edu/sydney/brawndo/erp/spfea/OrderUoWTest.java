@@ -0,0 +1,259 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.OrderDelta;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static au.edu.sydney.brawndo.erp.spfea.TestOrders.order;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the OrderUoW state machine by capturing the change set each commit hands to a mocked OrderCommitter.
+ */
+public class OrderUoWTest {
+
+    private MockedStatic<TestDatabase> mockedStaticDB;
+    private TestDatabase mockedDB;
+    private AuthToken token;
+    private OrderCommitter committer;
+    private Product cola;
+    private Product lime;
+    private OrderUoW uow;
+
+    @BeforeEach
+    public void setup() {
+        mockedDB = mock(TestDatabase.class);
+        mockedStaticDB = mockStatic(TestDatabase.class);
+        mockedStaticDB.when(TestDatabase::getInstance).thenReturn(mockedDB);
+
+        token = mock(AuthToken.class);
+        committer = mock(OrderCommitter.class);
+        when(committer.submit(any(), any(), anyList(), anyMap(), anyList(), anyMap()))
+                .thenReturn(CompletableFuture.completedFuture(new CommitResult(0, 0)));
+
+        cola = TestOrders.cola();
+        lime = TestOrders.lime();
+
+        uow = new OrderUoW(() -> token, committer);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        mockedStaticDB.close();
+    }
+
+    @Test
+    public void deletingANewOrderForgetsIt() {
+        Order order = order(1);
+        uow.registerNew(order);
+        uow.registerDeleted(1);
+
+        assertNull(uow.getOrder(1));
+        assertFalse(uow.isDeleted(1));
+        assertTrue(uow.getNewOrders().isEmpty());
+        assertTrue(uow.getDeletedOrders().isEmpty());
+
+        assertEquals(0, uow.commit().join().getSavedCount());
+        verify(committer, never()).submit(any(), any(), anyList(), anyMap(), anyList(), anyMap());
+    }
+
+    @Test
+    public void editingANewOrderLeavesItNew() {
+        Order order = order(1);
+        uow.registerNew(order);
+        order.setProduct(cola, 2);
+        uow.registerDirty(order, 7);
+        order.setProduct(lime, 1);
+        uow.registerLineChange(order, lime, 1, 7);
+
+        assertEquals(Collections.singletonList(1), uow.getNewOrders());
+
+        ChangeSet committed = commit();
+        assertEquals(Collections.singletonList(order), committed.saves);
+        assertTrue(committed.deltas.isEmpty(), "A new order must be saved whole");
+        assertEquals(Collections.singletonMap(1, 0L), committed.expectedVersions, "A new order must not exist yet");
+    }
+
+    @Test
+    public void deletingAStoredOrderNeedsNoRead() {
+        uow.registerDeleted(5, 3);
+
+        assertTrue(uow.isDeleted(5));
+        assertEquals(Collections.singletonList(5), uow.getDeletedOrders());
+
+        ChangeSet committed = commit();
+        assertEquals(Collections.singletonList(5), committed.removals);
+        assertEquals(Collections.singletonMap(5, 3L), committed.expectedVersions);
+        verifyNoInteractions(mockedDB);
+    }
+
+    @Test
+    public void lineChangesToAStoredOrderAreCommittedAsOneDelta() {
+        Order order = order(2);
+        order.setProduct(cola, 2);
+        uow.registerLineChange(order, cola, 2, 4);
+        order.setProduct(lime, 3);
+        uow.registerLineChange(order, lime, 3, 4);
+        order.setProduct(cola, 5);
+        uow.registerLineChange(order, cola, 5, 4);
+
+        ChangeSet committed = commit();
+        assertEquals(Collections.singletonList(order), committed.saves);
+        OrderDelta delta = committed.deltas.get(2);
+        assertEquals(2, delta.getLines().size());
+        assertEquals(5, delta.getLines().get(cola));
+        assertEquals(3, delta.getLines().get(lime));
+        assertEquals(Collections.singletonMap(2, 4L), committed.expectedVersions);
+    }
+
+    @Test
+    public void registeringAStoredOrderDirtySavesItWhole() {
+        Order order = order(2);
+        uow.registerLineChange(order, cola, 2, 4);
+        uow.registerDirty(order, 4);
+
+        ChangeSet committed = commit();
+        assertEquals(Collections.singletonList(order), committed.saves);
+        assertTrue(committed.deltas.isEmpty());
+    }
+
+    @Test
+    public void cleanOrdersNeedNoWriteUntilChanged() {
+        Order clean = order(3);
+        Order changed = order(4);
+        uow.registerClean(clean);
+        uow.registerClean(changed);
+        assertNull(uow.getOrder(3));
+
+        uow.registerDirty(changed);
+
+        ChangeSet committed = commit();
+        assertEquals(Collections.singletonList(changed), committed.saves);
+        assertTrue(committed.expectedVersions.isEmpty());
+    }
+
+    @Test
+    public void deletedOrdersCanNotBeChanged() {
+        Order order = order(6);
+        uow.registerDeleted(6, 1);
+
+        assertThrows(IllegalStateException.class, () -> uow.registerDirty(order));
+        assertThrows(IllegalStateException.class, () -> uow.registerLineChange(order, cola, 1));
+        assertTrue(uow.isDeleted(6));
+    }
+
+    @Test
+    public void commitEmptiesTheUoW() {
+        Order order = order(1);
+        uow.registerNew(order);
+        assertSame(order, uow.getOrder(1));
+
+        commit();
+
+        assertNull(uow.getOrder(1));
+        assertTrue(uow.getNewOrders().isEmpty());
+    }
+
+    @Test
+    public void pendingOrderPolicyCommitsOnceEnoughOrdersArePending() {
+        uow = new OrderUoW(() -> token, committer, FlushPolicy.pendingOrders(3));
+        uow.registerNew(order(1));
+        uow.registerNew(order(2));
+        uow.registerNew(order(2)); // the same order again, still two pending
+        verify(committer, never()).submit(any(), any(), anyList(), anyMap(), anyList(), anyMap());
+
+        uow.registerDeleted(4, 1);
+
+        ChangeSet committed = captureSubmit();
+        assertEquals(2, committed.saves.size());
+        assertEquals(Collections.singletonList(4), committed.removals);
+        assertTrue(uow.getNewOrders().isEmpty());
+    }
+
+    @Test
+    public void idlePolicyCommitsOnceNothingHasChangedForAWhile() {
+        uow = new OrderUoW(() -> token, committer, FlushPolicy.idle(200));
+        uow.registerNew(order(1));
+        verify(committer, never()).submit(any(), any(), anyList(), anyMap(), anyList(), anyMap());
+
+        // on the scheduler's thread, which doesn't see the mocked TestDatabase.getInstance()
+        verify(committer, timeout(5000)).submit(eq(token), any(), anyList(), anyMap(), anyList(), anyMap());
+        assertNull(uow.getOrder(1));
+        uow.stopAutoFlush();
+    }
+
+    @Test
+    public void idlePolicyLeavesAnEmptyOrStoppedUoWAlone() throws InterruptedException {
+        uow = new OrderUoW(() -> token, committer, FlushPolicy.idle(20));
+        Thread.sleep(100); // several idle periods with nothing pending
+        uow.stopAutoFlush();
+        uow.registerNew(order(1));
+        Thread.sleep(100);
+
+        verify(committer, never()).submit(any(), any(), anyList(), anyMap(), anyList(), anyMap());
+        assertSame(uow.getOrder(1), uow.getChangedOrders().get(0));
+    }
+
+    private ChangeSet commit() {
+        uow.commit();
+        return captureSubmit();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeSet captureSubmit() {
+        ArgumentCaptor<List<Order>> saves = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Map<Integer, OrderDelta>> deltas = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<List<Integer>> removals = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Map<Integer, Long>> expectedVersions = ArgumentCaptor.forClass(Map.class);
+        verify(committer).submit(eq(token), eq(mockedDB), saves.capture(), deltas.capture(), removals.capture(),
+                expectedVersions.capture());
+        return new ChangeSet(saves.getValue(), deltas.getValue(), removals.getValue(), expectedVersions.getValue());
+    }
+
+    /**
+     * The arguments of one commit's call to the committer.
+     */
+    private static class ChangeSet {
+        private final List<Order> saves;
+        private final Map<Integer, OrderDelta> deltas;
+        private final List<Integer> removals;
+        private final Map<Integer, Long> expectedVersions;
+
+        private ChangeSet(List<Order> saves, Map<Integer, OrderDelta> deltas, List<Integer> removals,
+                          Map<Integer, Long> expectedVersions) {
+            this.saves = saves;
+            this.deltas = deltas;
+            this.removals = removals;
+            this.expectedVersions = expectedVersions;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthModule;
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.OrderSnapshot;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the facade's handling of stored orders against a mocked TestDatabase, with products of its own rather than
+ * ProductDatabase's.
+ */
+public class SPFEAFacadeTest {
+
+    private MockedStatic<TestDatabase> mockedStaticDB;
+    private TestDatabase mockedDB;
+    private AuthToken token;
+    private Product cola;
+    private SPFEAFacade facade;
+
+    @BeforeEach
+    public void setup() {
+        mockedDB = mock(TestDatabase.class);
+        mockedStaticDB = mockStatic(TestDatabase.class);
+        mockedStaticDB.when(TestDatabase::getInstance).thenReturn(mockedDB);
+
+        cola = TestOrders.cola();
+
+        facade = new SPFEAFacade();
+        token = login(facade);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        mockedStaticDB.close();
+    }
+
+    @Test
+    public void committedOrdersAreCopiedOnFirstChange() {
+        Order stored = storedOrder(1, 2);
+        when(mockedDB.getOrder(token, 1)).thenReturn(stored);
+
+        Order found = facade.findOrder(1);
+        assertEquals(2, found.getProductQty(cola));
+
+        found.setProduct(cola, 3);
+        found.finalise();
+
+        assertEquals(3, found.getProductQty(cola));
+        assertEquals(2, stored.getProductQty(cola)); // the shared snapshot is untouched
+        assertEquals(2, facade.findOrder(1).getProductQty(cola)); // and so is what the session reads next
+    }
+
+    @Test
+    public void committedOrdersAreStillEditedThroughTheFacade() {
+        when(mockedDB.getOrder(token, 1)).thenReturn(storedOrder(1, 2));
+
+        facade.orderLineSet(1, cola, 5);
+
+        Order found = facade.findOrder(1);
+        assertEquals(5, found.getProductQty(cola));
+        found.setProduct(cola, 6); // the session's own uncommitted order, which it may change
+        assertEquals(6, facade.findOrder(1).getProductQty(cola));
+    }
+
+    @Test
+    public void cachedOrdersAreServedWithoutTheDatabase() {
+        when(mockedDB.getOrder(token, 1)).thenReturn(storedOrder(1, 2));
+
+        facade.findOrder(1);
+        assertEquals(5.0, facade.getOrderTotalCost(1));
+        facade.getOrderShortDesc(1);
+
+        verify(mockedDB).getOrderVersion(token, 1); // only when the order was first read
+        verify(mockedDB).getOrder(token, 1);
+        assertEquals(2, facade.getOrderCache().getHitCount());
+    }
+
+    @Test
+    public void loggingInAgainCommitsThePreviousLoginsOrders() {
+        when(mockedDB.getOrder(token, 1)).thenReturn(storedOrder(1, 2));
+        facade.orderLineSet(1, cola, 5);
+
+        AuthToken secondToken = login(facade);
+
+        verify(mockedDB, timeout(5000)).applyChanges(any(), anyCollection(), anyCollection(), anyCollection(),
+                anyMap()); // under a token logged in for the commit
+        assertNull(facade.findOrder(1)); // the second login's UoW starts empty, and its token has no stored order
+        assertTrue(facade.getAllOrders().isEmpty());
+        verify(mockedDB).getOrderIDs(secondToken);
+    }
+
+    @Test
+    public void failedLoginEndsThePreviousLogin() {
+        when(mockedDB.getOrder(token, 1)).thenReturn(storedOrder(1, 2));
+        facade.orderLineSet(1, cola, 5);
+
+        try (MockedStatic<AuthModule> authModule = mockStatic(AuthModule.class)) {
+            assertFalse(facade.login("username", "wrong password"));
+        }
+
+        verify(mockedDB, timeout(5000)).applyChanges(any(), anyCollection(), anyCollection(), anyCollection(),
+                anyMap());
+        assertThrows(SecurityException.class, () -> facade.findOrder(1));
+        assertThrows(SecurityException.class, () -> facade.orderLineSet(1, cola, 6));
+    }
+
+    private AuthToken login(SPFEAFacade session) {
+        try (MockedStatic<AuthModule> authModule = mockStatic(AuthModule.class)) {
+            AuthToken sessionToken = mock(AuthToken.class);
+            authModule.when(() -> AuthModule.login("username", "password")).thenReturn(sessionToken);
+            authModule.when(() -> AuthModule.authenticate(sessionToken)).thenReturn(true);
+
+            assertTrue(session.login("username", "password"));
+            return sessionToken;
+        }
+    }
+
+    private Order storedOrder(int id, int colaQty) {
+        return OrderSnapshot.of(TestOrders.order(id, cola, colaQty));
+    }
+}
@@ -0,0 +1,138 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthModule;
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.InMemoryOrderStore;
+import au.edu.sydney.brawndo.erp.database.OrderStore;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.database.ZeroLatencyProfile;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs sessions of a SessionManager against the real TestDatabase, with an in-memory store of its own and no latency
+ * except where a test holds the database's writes.
+ */
+public class SessionManagerTest {
+
+    private TestDatabase database;
+    private OrderStore previousStore;
+    private AuthToken setupToken;
+    private SessionManager manager;
+    private Product cola;
+
+    @BeforeEach
+    public void setup() {
+        database = TestDatabase.getInstance();
+        previousStore = database.getOrderStore();
+        database.setOrderStore(new InMemoryOrderStore());
+        database.setLatencyProfile(new ZeroLatencyProfile());
+        database.setProgressOutput(false);
+
+        cola = TestOrders.cola();
+        synchronized (AuthModule.tokens) {
+            setupToken = AuthModule.login("Beef Supreme", "hunter2");
+        }
+        manager = new SessionManager();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        synchronized (AuthModule.tokens) {
+            AuthModule.logout(setupToken);
+        }
+        database.setOrderStore(previousStore);
+        database.setProgressOutput(Boolean.parseBoolean(System.getProperty("brawndo.db.progress", "true")));
+    }
+
+    @Test
+    public void sessionsAreCountedUntilTheyLogOut() {
+        SPFEAFacade first = manager.login("Beef Supreme", "hunter2");
+        SPFEAFacade second = manager.login("Beef Supreme", "hunter2");
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(2, manager.getSessionCount());
+        assertNull(manager.login("Beef Supreme", "wrong"));
+        assertEquals(2, manager.getSessionCount());
+
+        manager.logout(first).join();
+        assertEquals(1, manager.getSessionCount());
+
+        CommitResult again = manager.logout(first).join(); // already logged out, so nothing to commit
+        assertEquals(0, again.getSavedCount());
+        assertEquals(1, manager.getSessionCount());
+
+        manager.logout(second).join();
+        assertEquals(0, manager.getSessionCount());
+    }
+
+    @Test
+    public void loggingOutCommitsTheSessionsChanges() {
+        int orderID = storeOrder();
+        SPFEAFacade session = manager.login("Beef Supreme", "hunter2");
+        session.orderLineSet(orderID, cola, 4);
+
+        assertEquals(1, manager.logout(session).join().getSavedCount());
+        assertEquals(4, database.getOrder(setupToken, orderID).getProductQty(cola));
+    }
+
+    @Test
+    public void shutdownWaitsForSessionsStillCommitting() throws Exception {
+        int endedOrderID = storeOrder();
+        int openOrderID = storeOrder();
+        SPFEAFacade ended = manager.login("Beef Supreme", "hunter2");
+        SPFEAFacade open = manager.login("Beef Supreme", "hunter2");
+        ended.orderLineSet(endedOrderID, cola, 2);
+        open.orderLineSet(openOrderID, cola, 3);
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        database.setLatencyProfile(operation -> { // holds every write until the test releases them
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 0;
+        });
+        try {
+            CompletableFuture<CommitResult> endedCommit = manager.logout(ended);
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            CompletableFuture<Void> shutdown = CompletableFuture.runAsync(manager::shutdown);
+            Thread.sleep(100);
+            assertFalse(shutdown.isDone()); // still waiting on the ended session's commit
+            assertEquals(0, manager.getSessionCount());
+
+            release.countDown();
+            shutdown.get(5, TimeUnit.SECONDS);
+            assertTrue(endedCommit.isDone());
+        } finally {
+            release.countDown();
+            database.setLatencyProfile(new ZeroLatencyProfile());
+        }
+        assertEquals(2, database.getOrder(setupToken, endedOrderID).getProductQty(cola));
+        assertEquals(3, database.getOrder(setupToken, openOrderID).getProductQty(cola));
+    }
+
+    private int storeOrder() {
+        int orderID = database.getNextOrderID();
+        database.saveOrder(setupToken, TestOrders.order(orderID, cola, 1));
+        return orderID;
+    }
+}
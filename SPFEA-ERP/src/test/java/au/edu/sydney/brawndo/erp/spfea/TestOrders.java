@@ -0,0 +1,59 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
+import au.edu.sydney.brawndo.erp.spfea.ordering.OrderImpl;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.FlatRateDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.PersonalInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductImpl;
+
+import java.time.LocalDateTime;
+
+/**
+ * The orders and products the tests build their cases from: two catalog products, and plain orders for customer 0 at
+ * a fixed date, without a discount.
+ */
+public final class TestOrders {
+
+    public static final LocalDateTime DATE = LocalDateTime.of(2023, 5, 17, 9, 30);
+
+    private TestOrders() {
+    }
+
+    /**
+     * @return the first product of a two product catalog
+     */
+    public static Product cola() {
+        return new ProductImpl(new ProductKey(0, "Cola1"), "Cola", 2.5,
+                new double[]{1, 2}, new double[]{3}, new double[]{4}, new double[]{5}, new double[]{6});
+    }
+
+    /**
+     * @return the second product of a two product catalog
+     */
+    public static Product lime() {
+        return new ProductImpl(new ProductKey(1, "Lime1"), "Lime", 4.0,
+                new double[]{7}, new double[]{8}, new double[]{9}, new double[]{10}, new double[]{11});
+    }
+
+    /**
+     * @param id the order ID
+     * @return a new order without any lines
+     */
+    public static Order order(int id) {
+        return new OrderImpl(id, 0, DATE, new FlatRateDiscountStrat(1.0), new PersonalInvoiceStrat());
+    }
+
+    /**
+     * @param id      the order ID
+     * @param product the product of the order's one line
+     * @param qty     the quantity of the product
+     * @return a new order with one line
+     */
+    public static Order order(int id, Product product, int qty) {
+        Order order = order(id);
+        order.setProduct(product, qty);
+        return order;
+    }
+}
@@ -0,0 +1,173 @@
+package au.edu.sydney.brawndo.erp.spfea;
+
+import au.edu.sydney.brawndo.erp.auth.AuthToken;
+import au.edu.sydney.brawndo.erp.database.CustomerRecord;
+import au.edu.sydney.brawndo.erp.database.TestDatabase;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductImpl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Writes and reads warm-start snapshots in a temporary directory, using a small catalog of its own rather than
+ * ProductDatabase's.
+ */
+public class WarmStartSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private Map<String, Product> catalog;
+
+    @BeforeEach
+    public void setup() {
+        file = dir.resolve("snapshot.dat");
+        catalog = new LinkedHashMap<>();
+        catalog.put("Cola1", new ProductImpl(new ProductKey(0, "Cola1"), "Cola", 2.5,
+                new double[]{1, 2}, new double[]{3}, new double[]{4}, new double[]{5}, new double[]{6}));
+        catalog.put("Lime1", new ProductImpl(new ProductKey(1, "Lime1"), "Lime", 4.0,
+                new double[]{7}, new double[]{3}, new double[]{9}, new double[]{10}, new double[]{11}));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        long loadedAt = System.currentTimeMillis() - 1000;
+        Map<String, String> fields = new HashMap<>();
+        fields.put("fName", "Ada");
+        fields.put("lName", null);
+        WarmStartSnapshot written = new WarmStartSnapshot(Arrays.asList(1, 2, 3), Collections.singletonList(
+                new WarmStartSnapshot.CustomerFields(new CustomerRecord(2, fields), CustomerFieldGroup.IDENTITY,
+                        loadedAt)), catalog);
+        written.write(file);
+
+        WarmStartSnapshot read = WarmStartSnapshot.read(file);
+
+        assertEquals(written.getWrittenAt(), read.getWrittenAt());
+        assertEquals(Arrays.asList(1, 2, 3), read.getCustomerIDs());
+        assertEquals(1, read.getCustomerFields().size());
+        WarmStartSnapshot.CustomerFields cached = read.getCustomerFields().get(0);
+        assertEquals(2, cached.getFields().getId());
+        assertEquals(CustomerFieldGroup.IDENTITY, cached.getGroup());
+        assertEquals(loadedAt, cached.getLoadedAt());
+        assertEquals("Ada", cached.getFields().getField("fName"));
+        assertTrue(cached.getFields().hasField("lName"));
+        assertNull(cached.getFields().getField("lName"));
+
+        Map<String, Product> products = read.getCatalog();
+        assertEquals(catalog.keySet(), products.keySet());
+        for (Map.Entry<String, Product> entry : catalog.entrySet()) {
+            Product expected = entry.getValue();
+            Product actual = products.get(entry.getKey());
+            assertEquals(expected.getKey().getId(), actual.getKey().getId());
+            assertEquals(expected.getKey().getSku(), actual.getKey().getSku());
+            assertEquals(expected.getProductName(), actual.getProductName());
+            assertEquals(expected.getCost(), actual.getCost());
+            assertArrayEquals(expected.getManufacturingData(), actual.getManufacturingData());
+            assertArrayEquals(expected.getRecipeData(), actual.getRecipeData());
+            assertArrayEquals(expected.getMarketingData(), actual.getMarketingData());
+            assertArrayEquals(expected.getSafetyData(), actual.getSafetyData());
+            assertArrayEquals(expected.getLicensingData(), actual.getLicensingData());
+        }
+        assertSame(products.get("Cola1").getRecipeData(), products.get("Lime1").getRecipeData(),
+                "A shared array was read back as two");
+    }
+
+    @Test
+    public void emptyCatalogIsNotRestored() throws IOException {
+        new WarmStartSnapshot(null, Collections.emptyList(), Collections.emptyMap()).write(file);
+
+        WarmStartSnapshot read = WarmStartSnapshot.read(file);
+
+        assertNull(read.getCustomerIDs());
+        assertNull(read.getCatalog());
+    }
+
+    @Test
+    public void badChecksumIsRejected() throws IOException {
+        new WarmStartSnapshot(null, Collections.emptyList(), catalog).write(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x01; // in the body, past the header
+        Files.write(file, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> WarmStartSnapshot.read(file));
+        assertEquals("checksum mismatch", e.getMessage());
+    }
+
+    @Test
+    public void otherVersionIsRejected() throws IOException {
+        new WarmStartSnapshot(null, Collections.emptyList(), catalog).write(file);
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(4, 99);
+        Files.write(file, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> WarmStartSnapshot.read(file));
+        assertEquals("written by an incompatible version", e.getMessage());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        new WarmStartSnapshot(null, Collections.emptyList(), catalog).write(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 8));
+        IOException e = assertThrows(IOException.class, () -> WarmStartSnapshot.read(file));
+        assertEquals("truncated", e.getMessage());
+
+        Files.write(file, Arrays.copyOf(bytes, 10)); // not even a whole header
+        assertThrows(IOException.class, () -> WarmStartSnapshot.read(file));
+    }
+
+    @Test
+    public void restoredFieldsAgeFromWhenTheyWereLoaded() {
+        TestDatabase database = mock(TestDatabase.class);
+        AuthToken token = mock(AuthToken.class);
+        CustomerCache cache = new CustomerCache(5000, TimeUnit.MILLISECONDS, 1, () -> database);
+        long now = System.currentTimeMillis();
+        List<WarmStartSnapshot.CustomerFields> fields = Arrays.asList(
+                identity(1, "Fresh", now - 1000),
+                identity(2, "Stale", now - 10_000),
+                identity(3, "Future", now + 60_000)); // written by a clock ahead of this one
+
+        assertEquals(1, cache.restore(new WarmStartSnapshot(null, fields, catalog)));
+
+        assertEquals("Fresh", cache.getField(token, 1, "fName"));
+        verify(database, never()).getCustomerFields(any(), anyInt(), anyCollection());
+    }
+
+    private static WarmStartSnapshot.CustomerFields identity(int id, String fName, long loadedAt) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("fName", fName);
+        fields.put("lName", fName);
+        return new WarmStartSnapshot.CustomerFields(new CustomerRecord(id, fields), CustomerFieldGroup.IDENTITY,
+                loadedAt);
+    }
+}
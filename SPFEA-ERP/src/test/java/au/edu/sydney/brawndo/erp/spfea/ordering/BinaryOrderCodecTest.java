@@ -0,0 +1,163 @@
+package au.edu.sydney.brawndo.erp.spfea.ordering;
+
+import au.edu.sydney.brawndo.erp.ordering.Order;
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.BulkDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.FlatRateDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.BusinessInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.PersonalInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductCatalog;
+import au.edu.sydney.brawndo.erp.spfea.TestOrders;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductImpl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips orders through BinaryOrderCodec, using a small catalog of its own rather than ProductDatabase's.
+ */
+public class BinaryOrderCodecTest {
+
+    private static final LocalDateTime DATE = LocalDateTime.of(2023, 5, 17, 9, 30, 15, 123_456_789);
+
+    private Product cola;
+    private Product lime;
+    private BinaryOrderCodec codec;
+
+    @BeforeEach
+    public void setup() {
+        cola = TestOrders.cola();
+        lime = TestOrders.lime();
+        codec = new BinaryOrderCodec(new ProductCatalog(Arrays.asList(cola, lime)));
+    }
+
+    @Test
+    public void orderWithFlatRateDiscount() throws IOException {
+        OrderImpl order = new OrderImpl(7, 2, DATE, new FlatRateDiscountStrat(0.9), new PersonalInvoiceStrat());
+        order.setProduct(cola, 3);
+        order.setProduct(lime, 1);
+
+        OrderImpl decoded = assertInstanceOf(OrderImpl.class, roundTrip(order));
+
+        assertCommonFields(order, decoded);
+        FlatRateDiscountStrat discount = assertInstanceOf(FlatRateDiscountStrat.class, decoded.getDiscountStrategy());
+        assertEquals(0.9, discount.getDiscountRate());
+        assertInstanceOf(PersonalInvoiceStrat.class, decoded.getInvoiceStrategy());
+        assertFalse(decoded.isFinalised());
+    }
+
+    @Test
+    public void orderWithBulkDiscount() throws IOException {
+        OrderImpl order = new OrderImpl(8, 3, DATE, new BulkDiscountStrat(0.5, 10), new BusinessInvoiceStrat());
+        order.setProduct(cola, 12);
+        order.setProduct(lime, 4);
+        order.finalise();
+
+        OrderImpl decoded = assertInstanceOf(OrderImpl.class, roundTrip(order));
+
+        assertCommonFields(order, decoded);
+        BulkDiscountStrat discount = assertInstanceOf(BulkDiscountStrat.class, decoded.getDiscountStrategy());
+        assertEquals(0.5, discount.getDiscountRate());
+        assertEquals(10, discount.getDiscountThreshold());
+        assertInstanceOf(BusinessInvoiceStrat.class, decoded.getInvoiceStrategy());
+        assertTrue(decoded.isFinalised());
+    }
+
+    @Test
+    public void subscriptionWithFlatRateDiscount() throws IOException {
+        SubscriptionOrderImpl order = new SubscriptionOrderImpl(9, 0, DATE, new FlatRateDiscountStrat(0.75),
+                new BusinessInvoiceStrat(), 6);
+        order.setProduct(lime, 2);
+
+        SubscriptionOrderImpl decoded = assertInstanceOf(SubscriptionOrderImpl.class, roundTrip(order));
+
+        assertCommonFields(order, decoded);
+        assertEquals(6, decoded.numberOfShipmentsOrdered());
+        assertEquals(order.getRecurringCost(), decoded.getRecurringCost());
+        FlatRateDiscountStrat discount = assertInstanceOf(FlatRateDiscountStrat.class, decoded.getDiscountStrategy());
+        assertEquals(0.75, discount.getDiscountRate());
+        assertInstanceOf(BusinessInvoiceStrat.class, decoded.getInvoiceStrategy());
+        assertFalse(decoded.isFinalised());
+    }
+
+    @Test
+    public void subscriptionWithBulkDiscount() throws IOException {
+        SubscriptionOrderImpl order = new SubscriptionOrderImpl(10, 1, DATE, new BulkDiscountStrat(0.8, 5),
+                new PersonalInvoiceStrat(), 12);
+        order.setProduct(cola, 5);
+        order.setProduct(lime, 9);
+        order.finalise();
+
+        SubscriptionOrderImpl decoded = assertInstanceOf(SubscriptionOrderImpl.class, roundTrip(order));
+
+        assertCommonFields(order, decoded);
+        assertEquals(12, decoded.numberOfShipmentsOrdered());
+        assertEquals(order.getRecurringCost(), decoded.getRecurringCost());
+        BulkDiscountStrat discount = assertInstanceOf(BulkDiscountStrat.class, decoded.getDiscountStrategy());
+        assertEquals(0.8, discount.getDiscountRate());
+        assertEquals(5, discount.getDiscountThreshold());
+        assertInstanceOf(PersonalInvoiceStrat.class, decoded.getInvoiceStrategy());
+        assertTrue(decoded.isFinalised());
+    }
+
+    @Test
+    public void linesDecodeToCatalogProducts() throws IOException {
+        Map<Product, Integer> lines = new LinkedHashMap<>();
+        lines.put(lime, 3);
+        lines.put(cola, 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeLines(lines, new DataOutputStream(bytes));
+        Map<Product, Integer> decoded = codec.readLines(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(Arrays.asList(lime, cola), Arrays.asList(decoded.keySet().toArray()));
+        assertSame(lime, decoded.keySet().iterator().next());
+        assertEquals(3, decoded.get(lime));
+        assertEquals(0, decoded.get(cola));
+    }
+
+    @Test
+    public void productOutsideTheCatalogIsRejected() {
+        Product stranger = new ProductImpl("Stranger", 1.0,
+                new double[]{12}, new double[]{13}, new double[]{14}, new double[]{15}, new double[]{16});
+        OrderImpl order = new OrderImpl(11, 0, DATE, new FlatRateDiscountStrat(1.0), new PersonalInvoiceStrat());
+        order.setProduct(stranger, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> roundTrip(order));
+    }
+
+    private Order roundTrip(Order order) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(order, new DataOutputStream(bytes));
+        return codec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private void assertCommonFields(Order expected, Order actual) {
+        assertEquals(expected.getOrderID(), actual.getOrderID());
+        assertEquals(expected.getCustomer(), actual.getCustomer());
+        assertEquals(expected.getOrderDate(), actual.getOrderDate());
+        assertEquals(expected.getAllProducts(), actual.getAllProducts());
+        for (Product product : expected.getAllProducts()) {
+            assertEquals(expected.getProductQty(product), actual.getProductQty(product));
+        }
+        assertEquals(expected.getTotalCost(), actual.getTotalCost());
+        assertEquals(expected.longDesc(), actual.longDesc());
+    }
+}
@@ -0,0 +1,198 @@
+package au.edu.sydney.brawndo.erp.spfea.ordering;
+
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.BulkDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.discountstrats.FlatRateDiscountStrat;
+import au.edu.sydney.brawndo.erp.spfea.ordering.strategies.invoicestrats.PersonalInvoiceStrat;
+import au.edu.sydney.brawndo.erp.spfea.products.ProductImpl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests OrderLines with products built here rather than taken from ProductDatabase, so catalog IDs can be chosen to
+ * crowd the lookup table.
+ */
+public class OrderLinesTest {
+
+    private static final double[] DATA = {1, 2, 3};
+
+    @Test
+    public void everyKeyedLineIsFoundThroughCrowdedProbes() {
+        OrderLines lines = new OrderLines();
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Product product = keyed(i * 64, i); // IDs sharing their low bits, so many land on the same slots
+            products.add(product);
+            lines.set(product, i + 1);
+        }
+
+        assertEquals(products.size(), lines.size());
+        for (int i = 0; i < products.size(); i++) {
+            assertEquals(i, lines.find(products.get(i)));
+            assertEquals(i + 1, lines.getQuantity(keyed(i * 64, i))); // a like product, rebuilt
+        }
+        assertEquals(-1, lines.find(keyed(1, 9999)));
+        assertEquals(0, lines.getQuantity(keyed(64 * 500, 9999)));
+    }
+
+    @Test
+    public void likeProductKeepsItsLine() {
+        OrderLines lines = new OrderLines();
+        Product first = keyed(3, 3);
+        lines.set(first, 2);
+        lines.set(keyed(3, 3), 5);
+        lines.set(keyed(4, 4), 0);
+
+        assertEquals(2, lines.size());
+        assertEquals(5, lines.getQuantity(0));
+        assertSame(first, lines.getProduct(0)); // the order keeps the product it was first given
+        assertEquals(0, lines.getQuantity(1)); // a zero quantity keeps its line
+        assertTrue(lines.productSet().contains(keyed(4, 4)));
+    }
+
+    @Test
+    public void keylessProductsAreFoundByValue() {
+        OrderLines lines = new OrderLines();
+        lines.set(keyed(0, 0), 1);
+        lines.set(keyless(1), 2);
+
+        assertEquals(1, lines.find(keyless(1)));
+        assertEquals(2, lines.getQuantity(keyless(1)));
+        assertEquals(1, lines.getQuantity(keyless(0))); // like the keyed product by value
+        assertEquals(-1, lines.find(keyless(2)));
+        assertFalse(lines.productSet().contains(keyless(2)));
+
+        lines.set(keyless(1), 7);
+        assertEquals(2, lines.size());
+        assertEquals(7, lines.getQuantity(1));
+    }
+
+    @Test
+    public void keyedProductFindsALikeKeylessLine() {
+        OrderLines lines = new OrderLines();
+        lines.set(keyless(5), 4);
+
+        assertEquals(0, lines.find(keyed(5, 5))); // no line has its ID, so it is compared by value
+        lines.set(keyed(5, 5), 6);
+
+        assertEquals(1, lines.size());
+        assertEquals(6, lines.getQuantity(keyless(5)));
+    }
+
+    @Test
+    public void linesKeepTheirOrderAsTheyGrow() {
+        OrderLines lines = new OrderLines();
+        for (int i = 0; i < 100; i++) {
+            lines.set(i % 3 == 0 ? keyless(i) : keyed(i, i), i);
+            for (int j = 0; j <= i; j++) { // every line still found after each growth
+                assertEquals(j, lines.getQuantity(j % 3 == 0 ? keyless(j) : keyed(j, j)));
+            }
+        }
+
+        assertEquals(100, lines.size());
+        int line = 0;
+        for (Product product : lines.productSet()) {
+            assertSame(lines.getProduct(line), product);
+            assertEquals(line, lines.getQuantity(line));
+            assertEquals(line, lines.getUnitCost(line));
+            line++;
+        }
+        assertEquals(100, line);
+        assertThrows(IndexOutOfBoundsException.class, () -> lines.getQuantity(100));
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        OrderLines lines = new OrderLines();
+        lines.set(keyed(0, 0), 1);
+        lines.set(keyless(1), 2);
+
+        OrderLines copy = lines.copy();
+        copy.set(keyed(0, 0), 10);
+        for (int i = 2; i < 20; i++) { // enough to grow the copy
+            copy.set(keyed(i, i), i);
+        }
+        lines.set(keyless(1), 3);
+        lines.set(keyless(50), 50);
+
+        assertEquals(3, lines.size());
+        assertEquals(1, lines.getQuantity(keyed(0, 0)));
+        assertEquals(3, lines.getQuantity(keyless(1)));
+        assertEquals(0, lines.getQuantity(keyed(2, 2)));
+
+        assertEquals(20, copy.size());
+        assertEquals(10, copy.getQuantity(keyed(0, 0)));
+        assertEquals(2, copy.getQuantity(keyless(1)));
+        assertEquals(0, copy.getQuantity(keyless(50)));
+        assertEquals(19, copy.getQuantity(keyed(19, 19)));
+    }
+
+    @Test
+    public void discountTotalsMatchTheMapBasedCalculation() {
+        Random random = new Random(42);
+        Map<Product, Integer> map = new HashMap<>();
+        OrderImpl flat = new OrderImpl(1, 0, LocalDateTime.now(), new FlatRateDiscountStrat(0.85),
+                new PersonalInvoiceStrat());
+        OrderImpl bulk = new OrderImpl(2, 0, LocalDateTime.now(), new BulkDiscountStrat(0.7, 10),
+                new PersonalInvoiceStrat());
+        for (int i = 0; i < 200; i++) {
+            int value = random.nextInt(40);
+            Product product = value % 4 == 0 ? keyless(value) : keyed(value, value); // repeats update the line
+            int qty = random.nextInt(20);
+            flat.setProduct(product, qty);
+            bulk.setProduct(product, qty);
+            map.put(product, qty);
+        }
+
+        assertEquals(map.size(), flat.getAllProducts().size());
+        assertEquals(flatCost(map, 0.85), flat.getTotalCost(), 1e-9);
+        assertEquals(bulkCost(map, 0.7, 10), bulk.getTotalCost(), 1e-9);
+
+        OrderImpl copy = (OrderImpl) bulk.copy();
+        assertEquals(bulk.getTotalCost(), copy.getTotalCost());
+    }
+
+    // The calculation the discount strategies made over a Map of products to quantities
+    private static double flatCost(Map<Product, Integer> products, double discountRate) {
+        double cost = 0.0;
+        for (Product product : products.keySet()) {
+            cost += products.get(product) * product.getCost() * discountRate;
+        }
+        return cost;
+    }
+
+    private static double bulkCost(Map<Product, Integer> products, double discountRate, int discountThreshold) {
+        double cost = 0.0;
+        for (Product product : products.keySet()) {
+            int count = products.get(product);
+            if (count >= discountThreshold) {
+                cost += count * product.getCost() * discountRate;
+            } else {
+                cost += count * product.getCost();
+            }
+        }
+        return cost;
+    }
+
+    private static Product keyed(int id, int value) {
+        return new ProductImpl(new ProductKey(id, "P" + id), "Product" + value, value, DATA, DATA, DATA, DATA, DATA);
+    }
+
+    private static Product keyless(int value) {
+        return new ProductImpl("Product" + value, value, DATA, DATA, DATA, DATA, DATA);
+    }
+}
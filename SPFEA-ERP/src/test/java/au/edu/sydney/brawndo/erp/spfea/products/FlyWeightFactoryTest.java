@@ -0,0 +1,121 @@
+package au.edu.sydney.brawndo.erp.spfea.products;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests FlyWeightFactory's sharing of equal arrays. The factory is a singleton, so each test interns data of its own
+ * that no other test or product uses.
+ */
+public class FlyWeightFactoryTest {
+
+    private final FlyWeightFactory factory = FlyWeightFactory.getInstance();
+
+    @Test
+    public void equalArraysShareOneFlyweight() {
+        double[] data = unique(4);
+        Flyweight first = factory.getFlyweight(data);
+        Flyweight second = factory.getFlyweight(data.clone());
+
+        assertSame(first, second);
+        assertSame(data, second.getData()); // the first array interned is the one kept
+        assertEquals(Arrays.hashCode(data), second.getDataHash());
+    }
+
+    @Test
+    public void arraysAreComparedByBitPattern() {
+        double seed = unique(1)[0];
+        double[] nan = {seed, Double.NaN};
+        double[] otherNan = {seed, Double.longBitsToDouble(0x7ff8000000000001L)};
+        double[] zero = {seed, 0.0};
+        double[] negativeZero = {seed, -0.0};
+
+        assertSame(factory.getFlyweight(nan), factory.getFlyweight(otherNan)); // as Arrays.equals treats NaNs
+        assertNotSame(factory.getFlyweight(zero), factory.getFlyweight(negativeZero));
+    }
+
+    @Test
+    public void differentArraysGetDifferentFlyweights() {
+        double[] data = unique(3);
+        double[] longer = Arrays.copyOf(data, 4);
+        double[] changed = data.clone();
+        changed[2] += 1;
+
+        Flyweight flyweight = factory.getFlyweight(data);
+
+        assertNotSame(flyweight, factory.getFlyweight(longer));
+        assertNotSame(flyweight, factory.getFlyweight(changed));
+        assertArrayEquals(data, flyweight.getData());
+    }
+
+    @Test
+    public void arraysWithTheSameFingerprintAreKeptApart() {
+        double[] single = unique(1);
+        double[] pair = collidingPair(single);
+        assertFalse(Arrays.equals(single, pair));
+        assertEquals(FlyWeightFactory.fingerprint(single), FlyWeightFactory.fingerprint(pair));
+
+        Flyweight singleFlyweight = factory.getFlyweight(single);
+        Flyweight pairFlyweight = factory.getFlyweight(pair);
+
+        assertNotSame(singleFlyweight, pairFlyweight);
+        assertSame(single, singleFlyweight.getData());
+        assertSame(pair, pairFlyweight.getData());
+        assertSame(singleFlyweight, factory.getFlyweight(single.clone()));
+        assertSame(pairFlyweight, factory.getFlyweight(pair.clone()));
+    }
+
+    @Test
+    public void nullDataHasNoFlyweight() {
+        assertNull(factory.getFlyweight(null));
+    }
+
+    private static double[] unique(int length) {
+        double[] data = new double[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = ThreadLocalRandom.current().nextDouble();
+        }
+        return data;
+    }
+
+    /**
+     * Builds a two-element array with the same fingerprint as a one-element one, by running the fingerprint's mixing
+     * step backwards from the target. The mixing step is a bijection, so this only fails to give a usable second
+     * element when its bits would be a NaN, which doubleToLongBits would collapse; then another first element is tried.
+     */
+    private static double[] collidingPair(double[] single) {
+        long target = unmix(FlyWeightFactory.fingerprint(single));
+        while (true) {
+            double first = unique(1)[0];
+            long partial = (0x9E3779B97F4A7C15L ^ 2) ^ Double.doubleToLongBits(first);
+            partial = mix(partial);
+            double second = Double.longBitsToDouble(target ^ partial);
+            if (!Double.isNaN(second)) {
+                return new double[]{first, second};
+            }
+        }
+    }
+
+    private static long mix(long hash) {
+        hash *= 0xBF58476D1CE4E5B9L;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static long unmix(long hash) {
+        hash ^= (hash >>> 31) ^ (hash >>> 62);
+        long inverse = 0xBF58476D1CE4E5B9L; // Newton's iteration for the multiplicative inverse mod 2^64
+        for (int i = 0; i < 5; i++) {
+            inverse *= 2 - 0xBF58476D1CE4E5B9L * inverse;
+        }
+        return hash * inverse;
+    }
+}
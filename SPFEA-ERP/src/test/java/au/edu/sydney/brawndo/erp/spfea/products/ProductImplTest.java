@@ -0,0 +1,175 @@
+package au.edu.sydney.brawndo.erp.spfea.products;
+
+import au.edu.sydney.brawndo.erp.ordering.Product;
+import au.edu.sydney.brawndo.erp.ordering.ProductKey;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that ProductImpl's cached hash and flyweight comparison agree with comparing products by their data, both
+ * between ProductImpls and against a Product implemented without flyweights.
+ */
+public class ProductImplTest {
+
+    private static final double[] MANUFACTURING = {1, 2};
+    private static final double[] RECIPE = {3};
+    private static final double[] MARKETING = {4};
+    private static final double[] SAFETY = {5};
+    private static final double[] LICENSING = {6};
+
+    @Test
+    public void productsWithEqualDataAreEqual() {
+        ProductImpl product = cola();
+        ProductImpl copy = new ProductImpl("Cola", 2.5, MANUFACTURING.clone(), RECIPE.clone(), MARKETING.clone(),
+                SAFETY.clone(), LICENSING.clone());
+
+        assertEquals(product, copy);
+        assertEquals(copy, product);
+        assertEquals(product.hashCode(), copy.hashCode());
+        assertEquals(hash(product), product.hashCode());
+    }
+
+    @Test
+    public void catalogKeyIsNotCompared() {
+        ProductImpl product = cola();
+        ProductImpl keyed = new ProductImpl(new ProductKey(7, "Cola7"), "Cola", 2.5, MANUFACTURING, RECIPE, MARKETING,
+                SAFETY, LICENSING);
+
+        assertEquals(product, keyed);
+        assertEquals(product.hashCode(), keyed.hashCode());
+    }
+
+    @Test
+    public void productsDifferingAnywhereAreNotEqual() {
+        ProductImpl product = cola();
+        Product[] others = {
+                new ProductImpl("Lime", 2.5, MANUFACTURING, RECIPE, MARKETING, SAFETY, LICENSING),
+                new ProductImpl("Cola", 2.6, MANUFACTURING, RECIPE, MARKETING, SAFETY, LICENSING),
+                new ProductImpl("Cola", 2.5, new double[]{2, 1}, RECIPE, MARKETING, SAFETY, LICENSING),
+                new ProductImpl("Cola", 2.5, MANUFACTURING, new double[]{3, 0}, MARKETING, SAFETY, LICENSING),
+                new ProductImpl("Cola", 2.5, MANUFACTURING, RECIPE, new double[]{-4}, SAFETY, LICENSING),
+                new ProductImpl("Cola", 2.5, MANUFACTURING, RECIPE, MARKETING, new double[0], LICENSING),
+                new ProductImpl("Cola", 2.5, MANUFACTURING, RECIPE, MARKETING, SAFETY, null),
+        };
+
+        for (Product other : others) {
+            assertNotEquals(product, other);
+            assertNotEquals(other, product);
+        }
+    }
+
+    @Test
+    public void productImplAndAnotherProductCompareByData() {
+        ProductImpl product = cola();
+        PlainProduct plain = new PlainProduct("Cola", 2.5, MANUFACTURING.clone(), RECIPE.clone(), MARKETING.clone(),
+                SAFETY.clone(), LICENSING.clone());
+
+        assertEquals(product, plain);
+        assertEquals(plain, product);
+        assertEquals(plain.hashCode(), product.hashCode());
+
+        Set<Product> products = new HashSet<>();
+        products.add(plain);
+        assertTrue(products.contains(product));
+
+        PlainProduct different = new PlainProduct("Cola", 2.5, MANUFACTURING, RECIPE, MARKETING, SAFETY,
+                new double[]{6, 6});
+        assertNotEquals(product, different);
+        assertNotEquals(different, product);
+    }
+
+    private static ProductImpl cola() {
+        return new ProductImpl("Cola", 2.5, MANUFACTURING, RECIPE, MARKETING, SAFETY, LICENSING);
+    }
+
+    // The hash every Product compared by its data should have, over the arrays themselves
+    private static int hash(Product product) {
+        int result = Objects.hash(product.getProductName(), product.getCost());
+        result = 31 * result + Arrays.hashCode(product.getManufacturingData());
+        result = 31 * result + Arrays.hashCode(product.getRecipeData());
+        result = 31 * result + Arrays.hashCode(product.getMarketingData());
+        result = 31 * result + Arrays.hashCode(product.getSafetyData());
+        result = 31 * result + Arrays.hashCode(product.getLicensingData());
+        return result;
+    }
+
+    /**
+     * A Product that holds its arrays directly and compares them element by element.
+     */
+    private static class PlainProduct implements Product {
+        private final String name;
+        private final double cost;
+        private final double[][] data;
+
+        private PlainProduct(String name, double cost, double[] manufacturingData, double[] recipeData,
+                             double[] marketingData, double[] safetyData, double[] licensingData) {
+            this.name = name;
+            this.cost = cost;
+            this.data = new double[][]{manufacturingData, recipeData, marketingData, safetyData, licensingData};
+        }
+
+        @Override
+        public String getProductName() {
+            return name;
+        }
+
+        @Override
+        public double getCost() {
+            return cost;
+        }
+
+        @Override
+        public double[] getManufacturingData() {
+            return data[0];
+        }
+
+        @Override
+        public double[] getRecipeData() {
+            return data[1];
+        }
+
+        @Override
+        public double[] getMarketingData() {
+            return data[2];
+        }
+
+        @Override
+        public double[] getSafetyData() {
+            return data[3];
+        }
+
+        @Override
+        public double[] getLicensingData() {
+            return data[4];
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(this);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Product)) {
+                return false;
+            }
+            Product product = (Product) o;
+            return Objects.equals(cost, product.getCost()) &&
+                    Objects.equals(name, product.getProductName()) &&
+                    Arrays.equals(data[0], product.getManufacturingData()) &&
+                    Arrays.equals(data[1], product.getRecipeData()) &&
+                    Arrays.equals(data[2], product.getMarketingData()) &&
+                    Arrays.equals(data[3], product.getSafetyData()) &&
+                    Arrays.equals(data[4], product.getLicensingData());
+        }
+    }
+}